@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A generated tree of text files for the benchmarks to search.  Files are made
+ * of lines of random words, some of which contain {@link #NEEDLE}; the same
+ * shape and density always generate the same files.
+ */
+public class Corpus {
+    static final String NEEDLE = "needle";
+    private static final String[] WORDS = {
+        "alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel",
+        "india", "juliet", "kilo", "lima", "mike", "november", "oscar", "papa",
+        "quebec", "romeo", "sierra", "tango", "uniform", "victor", "whiskey",
+        "xray", "yankee", "zulu", "public", "static", "void", "return", "=", "{", "}"
+    };
+
+    public enum Shape {
+        /** Many small files in nested directories, like a source tree. */
+        SMALL_FILES(2000, 4*1024),
+        /** A few very large files, like logs. */
+        HUGE_FILES(2, 64*1024*1024);
+
+        final int files;
+        final int bytesPerFile;
+
+        Shape(int files, int bytesPerFile){
+            this.files = files;
+            this.bytesPerFile = bytesPerFile;
+        }
+    }
+
+    public enum Density {
+        /** Every fourth line matches. */
+        DENSE(4),
+        /** One line in twenty thousand matches. */
+        SPARSE(20000);
+
+        final int linesPerMatch;
+
+        Density(int linesPerMatch){
+            this.linesPerMatch = linesPerMatch;
+        }
+    }
+
+    final File root;
+    final List<File> files = new ArrayList<>();
+    long bytes = 0;
+
+    private Corpus(File r){
+        root = r;
+    }
+
+    static Corpus create(Shape shape, Density density) throws IOException {
+        Corpus corpus = new Corpus(Files.createTempDirectory("jgrep-bench").toFile());
+        Random rand = new Random(shape.ordinal()*31+density.ordinal());
+        long line = 0;
+        for(int i = 0; i < shape.files; i++){
+            File dir = new File(corpus.root, "d"+(i%20)+File.separator+"e"+(i%7));
+            if(!dir.isDirectory() && !dir.mkdirs())
+                throw new IOException("Could not create "+dir);
+            File f = new File(dir, "file"+i+".txt");
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8))) {
+                int written = 0;
+                while(written < shape.bytesPerFile){
+                    StringBuilder sb = new StringBuilder();
+                    int words = 4+rand.nextInt(10);
+                    int needleAt = ++line % density.linesPerMatch == 0 ? rand.nextInt(words) : -1;
+                    for(int w = 0; w < words; w++){
+                        if(w > 0)
+                            sb.append(' ');
+                        sb.append(w == needleAt ? NEEDLE : WORDS[rand.nextInt(WORDS.length)]);
+                    }
+                    sb.append('\n');
+                    out.write(sb.toString());
+                    written += sb.length();
+                }
+            }
+            corpus.files.add(f);
+            corpus.bytes += f.length();
+        }
+        return corpus;
+    }
+
+    double megabytes(){
+        return bytes/(1024.0*1024.0);
+    }
+
+    void delete(){
+        delete(root);
+    }
+
+    private static void delete(File f){
+        File[] children = f.listFiles();
+        if(children != null){
+            for(File c : children)
+                delete(c);
+        }
+        f.delete();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches a generated corpus for a growing list of literal strings, with the
+ * Aho-Corasick automaton Grep.anyOf patterns use, and with java.util.regex
+ * matching the same alternation.  The automaton's throughput should barely
+ * change with the number of strings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MultiPatternBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int patterns;
+
+    @Param({"AHO_CORASICK", "REGEX"})
+    public String engine;
+
+    private Corpus corpus;
+    private Pattern compiled;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = Corpus.create(Corpus.Shape.SMALL_FILES, Corpus.Density.SPARSE);
+        ArrayList<String> list = new ArrayList<>();
+        list.add(Corpus.NEEDLE);
+        for(int i = 1; i < patterns; i++){
+            list.add("deprecatedApi"+i);
+        }
+        compiled = Grep.anyOf(list, Pattern.LITERAL);
+        if(engine.equals("REGEX")) // a lookahead matching nothing hides the literals
+            compiled = Pattern.compile(compiled.pattern()+"|(?!)");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        corpus.delete();
+    }
+
+    @Benchmark
+    public int grepFile(Throughput t){
+        int matches = 0;
+        for(File f : corpus.files){
+            matches += Grep.grepFile(f, compiled).size();
+        }
+        t.add(corpus);
+        return matches;
+    }
+}
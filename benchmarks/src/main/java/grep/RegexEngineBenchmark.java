@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches a generated corpus for regular expressions without a literal to
+ * rule lines out by, so every line goes through the engine, comparing the
+ * automaton with java.util.regex.  CLASSES is a typical pattern of classes and
+ * repetition; NESTED nests repetition, which java.util.regex backtracks
+ * through on each line that gets close to matching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegexEngineBenchmark {
+    @Param({"CLASSES", "NESTED"})
+    public String pattern;
+
+    @Param
+    public Grep.Engine engine;
+
+    private Corpus corpus;
+    private Pattern compiled;
+    private Grep.Options opts;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = Corpus.create(Corpus.Shape.SMALL_FILES, Corpus.Density.SPARSE);
+        compiled = Pattern.compile(pattern.equals("CLASSES") ? "[a-d]\\w+ [s-v]\\w+ [={]" : "^(\\w+\\s?)*=$");
+        opts = new Grep.Options().setEngine(engine);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        corpus.delete();
+    }
+
+    @Benchmark
+    public int countFile(Throughput t){
+        int matches = 0;
+        for(File f : corpus.files){
+            matches += Grep.countFile(f, compiled, opts);
+        }
+        t.add(corpus);
+        return matches;
+    }
+}
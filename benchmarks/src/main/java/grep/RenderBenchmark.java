@@ -0,0 +1,110 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.GrepResult;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Shows the results of every matching file in the GUI's result view and paints
+ * the first screen of them, including loading their context lines from the
+ * files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class RenderBenchmark {
+    @Param
+    public Corpus.Shape shape;
+
+    @Param
+    public Corpus.Density density;
+
+    @Param({"0", "3"})
+    public int context;
+
+    private Corpus corpus;
+    private HashMap<File,ArrayList<GrepResult>> results;
+    private ResultView view;
+    private Graphics2D graphics;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = Corpus.create(shape, density);
+        results = Grep.grep(corpus.root, Pattern.compile(Corpus.NEEDLE), new PathFilter(corpus.root), true);
+        view = new ResultView();
+        view.setSize(1000, 800);
+        view.setContext(context);
+        graphics = new BufferedImage(1000, 800, BufferedImage.TYPE_INT_RGB).createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void show(Throughput t){
+        for(Entry<File,ArrayList<GrepResult>> e : results.entrySet()){
+            view.setResults(e.getKey(), e.getValue());
+            layout(view);
+            view.paint(graphics);
+        }
+        t.add(0, results.size());
+    }
+
+    /**
+     * Lays out the view as showing it in a window would.
+     */
+    private static void layout(Container c){
+        c.doLayout();
+        for(Component child : c.getComponents()){
+            if(child instanceof Container)
+                layout((Container)child);
+        }
+    }
+}
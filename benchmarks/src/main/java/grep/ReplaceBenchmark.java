@@ -0,0 +1,89 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.GrepResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rewrites every matching file of a generated corpus with Grep.replace.  The
+ * replacement is the matched text itself, so the files and the results stay
+ * valid from one invocation to the next.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReplaceBenchmark {
+    @Param
+    public Corpus.Shape shape;
+
+    @Param
+    public Corpus.Density density;
+
+    @Param({"LITERAL", "REGEX"})
+    public String pattern;
+
+    private Corpus corpus;
+    private HashMap<File,ArrayList<GrepResult>> results;
+    private double megabytes = 0; // of the files with matches, which are the ones rewritten
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = Corpus.create(shape, density);
+        Pattern compiled = SearchBenchmark.compile(pattern);
+        results = Grep.grep(corpus.root, compiled, new PathFilter(corpus.root), true);
+        for(File f : results.keySet()){
+            megabytes += f.length()/(1024.0*1024.0);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        corpus.delete();
+    }
+
+    @Benchmark
+    public void replace(Throughput t) throws IOException {
+        Grep.replace(results, Corpus.NEEDLE);
+        t.add(megabytes, results.size());
+    }
+}
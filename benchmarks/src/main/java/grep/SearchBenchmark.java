@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.GrepResult;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Searches a generated corpus, file by file with Grep.grepFile and as a tree
+ * with Grep.grep, sequentially and in parallel, and file by file only counting
+ * the matches or stopping at the first.  grepSplit searches in parallel with
+ * files split into pieces, which only differs from grepParallel for
+ * HUGE_FILES.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchBenchmark {
+    @Param
+    public Corpus.Shape shape;
+
+    @Param
+    public Corpus.Density density;
+
+    @Param({"LITERAL", "REGEX"})
+    public String pattern;
+
+    private Corpus corpus;
+    private Pattern compiled;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        corpus = Corpus.create(shape, density);
+        compiled = compile(pattern);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        corpus.delete();
+    }
+
+    /**
+     * A literal pattern, which is searched for as bytes, or an equivalent
+     * regular expression, which goes through java.util.regex.
+     */
+    static Pattern compile(String kind){
+        return Pattern.compile(kind.equals("LITERAL") ? Corpus.NEEDLE : "\\bne+dle\\b");
+    }
+
+    @Benchmark
+    public int grepFile(Throughput t){
+        int matches = 0;
+        for(File f : corpus.files){
+            matches += Grep.grepFile(f, compiled).size();
+        }
+        t.add(corpus);
+        return matches;
+    }
+
+    @Benchmark
+    public int countFile(Throughput t){
+        int matches = 0;
+        for(File f : corpus.files){
+            matches += Grep.countFile(f, compiled, new Grep.Options());
+        }
+        t.add(corpus);
+        return matches;
+    }
+
+    /**
+     * Finds which files match, like grep -l, reading each only up to its first
+     * match; the megabytes counter is the size of the whole corpus.
+     */
+    @Benchmark
+    public int filesWithMatches(Throughput t){
+        Grep.Options opts = new Grep.Options().setMaxCount(1);
+        int matched = 0;
+        for(File f : corpus.files){
+            matched += Grep.countFile(f, compiled, opts);
+        }
+        t.add(corpus);
+        return matched;
+    }
+
+    @Benchmark
+    public HashMap<File,ArrayList<GrepResult>> grep(Throughput t){
+        HashMap<File,ArrayList<GrepResult>> res = Grep.grep(corpus.root, compiled, new PathFilter(corpus.root), true);
+        t.add(corpus);
+        return res;
+    }
+
+    @Benchmark
+    public HashMap<File,ArrayList<GrepResult>> grepParallel(Throughput t){
+        HashMap<File,ArrayList<GrepResult>> res = Grep.grep(corpus.root, compiled, new PathFilter(corpus.root), true,
+                Runtime.getRuntime().availableProcessors());
+        t.add(corpus);
+        return res;
+    }
+
+    @Benchmark
+    public HashMap<File,ArrayList<GrepResult>> grepSplit(Throughput t){
+        Grep.Options opts = new Grep.Options().setParallelism(Runtime.getRuntime().availableProcessors())
+                .setSplitSize(8*1024*1024);
+        HashMap<File,ArrayList<GrepResult>> res = Grep.grep(corpus.root, compiled, new PathFilter(corpus.root), true, opts);
+        t.add(corpus);
+        return res;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Counts the data a benchmark processed, which JMH reports as rates alongside
+ * the operation rate: megabytes is MB/s and files is files/s.  Benchmarks that
+ * don't read file contents leave megabytes at 0.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Throughput {
+    public double megabytes;
+    public long files;
+
+    @Setup(Level.Iteration)
+    public void reset(){
+        megabytes = 0;
+        files = 0;
+    }
+
+    void add(Corpus corpus){
+        add(corpus.megabytes(), corpus.files.size());
+    }
+
+    void add(double mb, long count){
+        megabytes += mb;
+        files += count;
+    }
+}
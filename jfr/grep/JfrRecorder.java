@@ -0,0 +1,144 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Reports searches as JDK Flight Recorder events: a jgrep.Search event for
+ * every search and a jgrep.FileSearch event for every file searched.  Built
+ * separately for Java 11, and loaded by SearchRecorder when JFR is available.
+ */
+class JfrRecorder extends SearchRecorder {
+    private static final EventType FILE_EVENT = EventType.getEventType(FileSearchEvent.class);
+
+    @Name("jgrep.Search")
+    @Label("Search")
+    @Category("jGrep")
+    @Description("A search of a file or directory tree")
+    static class SearchEvent extends Event {
+        @Label("Root")
+        String root;
+        @Label("Pattern")
+        String pattern;
+        @Label("Files Searched")
+        int filesSearched;
+        @Label("Files Skipped")
+        int filesSkipped;
+        @Label("Files Matched")
+        int filesMatched;
+        @Label("Matches")
+        int matches;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Lines Scanned")
+        long linesScanned;
+        @Label("Listing Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long listTime;
+        @Label("Indexing Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long indexTime;
+        @Label("Reading Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long readTime;
+        @Label("Scanning Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long scanTime;
+    }
+
+    @Name("jgrep.FileSearch")
+    @Label("File Search")
+    @Category("jGrep")
+    @Description("The search of a single file")
+    static class FileSearchEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+        @Label("Lines Scanned")
+        long linesScanned;
+        @Label("Matches")
+        int matches;
+    }
+
+    @Override
+    Object searchStarted(){
+        SearchEvent event = new SearchEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void searchFinished(Object token, File root, Pattern pattern, SearchStats stats){
+        SearchEvent event = (SearchEvent)token;
+        event.end();
+        if(!event.shouldCommit())
+            return;
+        event.root = root.getPath();
+        event.pattern = pattern.pattern();
+        event.filesSearched = stats.getFilesSearched();
+        event.filesSkipped = stats.getFilesSkipped();
+        event.filesMatched = stats.getFilesMatched();
+        event.matches = stats.getMatches();
+        event.bytesRead = stats.getBytesRead();
+        event.linesScanned = stats.getLinesScanned();
+        event.listTime = stats.getListNanos();
+        event.indexTime = stats.getIndexNanos();
+        event.readTime = stats.getReadNanos();
+        event.scanTime = stats.getScanNanos();
+        event.commit();
+    }
+
+    @Override
+    Object fileStarted(){
+        if(!FILE_EVENT.isEnabled()) // don't create an event per file for nothing
+            return null;
+        FileSearchEvent event = new FileSearchEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    void fileFinished(Object token, File file, long bytes, long lines, int matches){
+        if(token == null)
+            return;
+        FileSearchEvent event = (FileSearchEvent)token;
+        event.end();
+        if(!event.shouldCommit())
+            return;
+        event.path = file.getPath();
+        event.bytesRead = bytes;
+        event.linesScanned = lines;
+        event.matches = matches;
+        event.commit();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Searches for many literal strings at once, in a single pass over the bytes
+ * whose cost per byte does not depend on how many strings there are.  The
+ * strings are built into a trie whose failure links are then folded into a
+ * complete transition table, a DFA which consumes every byte with one array
+ * lookup.  Bytes which appear in none of the strings share a single column of
+ * the table, keeping it small even for thousands of strings; when searching
+ * case insensitively the two cases of each ASCII letter share a column too.
+ */
+class AhoCorasick extends LiteralMatcher {
+    // the most entries in a transition table, some 64MB
+    private static final int MAX_TABLE = 1 << 24;
+
+    private final List<String> strings;
+    private final int[] lengths;
+    private final int[] classOf = new int[256]; // the table column of each byte
+    private final int classes;
+    // the next state, by state*classes+column; states are stored multiplied by
+    // classes, and complemented if they spell a string or one along their
+    // failure links does, so the search loop needs no other lookups
+    private final int[] delta;
+    // the lowest numbered string spelled by each state, or -1
+    private final int[] out;
+    // the nearest state along each state's failure links which spells a string, or 0
+    private final int[] dict;
+    private final int maxLength;
+
+    /**
+     * @param encoded the non-empty strings to search for, as bytes
+     * @param strs the strings as given, reported by {@link #first}
+     * @throws IllegalArgumentException if the strings would need too large a table
+     */
+    AhoCorasick(List<byte[]> encoded, List<String> strs, boolean caseInsense){
+        strings = strs;
+        lengths = new int[encoded.size()];
+        int columns = 1; // column 0 is every byte in no string
+        int states = 1;
+        int longest = 0;
+        for(byte[] bytes : encoded){
+            states += bytes.length;
+            longest = Math.max(longest, bytes.length);
+            for(byte b : bytes){
+                int c = caseInsense ? FOLD[b & 0xff] & 0xff : b & 0xff;
+                if(classOf[c] == 0){
+                    classOf[c] = columns++;
+                    if(caseInsense && c >= 'a' && c <= 'z')
+                        classOf[c-('a'-'A')] = classOf[c];
+                }
+            }
+        }
+        classes = columns;
+        maxLength = longest;
+        if((long)states*classes > MAX_TABLE)
+            throw new IllegalArgumentException("Too many strings to search for at once.");
+
+        // the trie, with 0 for missing edges since no edge leads back to the root
+        int[] trie = new int[states*classes];
+        int[] own = new int[states];
+        Arrays.fill(own, -1);
+        int count = 1;
+        for(int i = 0; i < encoded.size(); i++){
+            byte[] bytes = encoded.get(i);
+            lengths[i] = bytes.length;
+            int s = 0;
+            for(byte b : bytes){
+                int edge = s*classes+classOf[b & 0xff];
+                if(trie[edge] == 0)
+                    trie[edge] = count++;
+                s = trie[edge];
+            }
+            if(own[s] < 0)
+                own[s] = i;
+        }
+
+        // breadth first, filling in each missing edge with the failure state's edge
+        delta = Arrays.copyOf(trie, count*classes);
+        out = Arrays.copyOf(own, count);
+        dict = new int[count];
+        boolean[] accept = new boolean[count];
+        int[] fail = new int[count];
+        int[] queue = new int[count];
+        int head = 0;
+        int tail = 0;
+        for(int c = 0; c < classes; c++){
+            if(delta[c] != 0)
+                queue[tail++] = delta[c];
+        }
+        while(head < tail){
+            int s = queue[head++];
+            int f = fail[s];
+            dict[s] = out[f] >= 0 ? f : dict[f];
+            accept[s] = out[s] >= 0 || accept[f];
+            for(int c = 0; c < classes; c++){
+                int edge = s*classes+c;
+                if(trie[edge] != 0){
+                    int next = delta[edge];
+                    fail[next] = delta[f*classes+c];
+                    queue[tail++] = next;
+                } else {
+                    delta[edge] = delta[f*classes+c];
+                }
+            }
+        }
+        for(int i = 0; i < delta.length; i++){
+            delta[i] = accept[delta[i]] ? ~(delta[i]*classes) : delta[i]*classes;
+        }
+    }
+
+    @Override
+    int findEnd(byte[] bytes, int from, int to){
+        int s = 0;
+        for(int i = from; i < to; i++){
+            s = delta[s+classOf[bytes[i] & 0xff]];
+            if(s < 0)
+                return i+1;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns which of the strings occurs first in bytes[from, to), or null if
+     * none does.  Like a regular expression alternating the strings, this is the
+     * one starting first, and of those the lowest numbered.
+     */
+    String first(byte[] bytes, int from, int to){
+        int best = -1;
+        int bestStart = Integer.MAX_VALUE;
+        int s = 0;
+        for(int i = from; i < to; i++){
+            if(i-maxLength >= bestStart) // nothing ending later can start sooner
+                break;
+            s = delta[s+classOf[bytes[i] & 0xff]];
+            if(s >= 0)
+                continue;
+            s = ~s;
+            int state = s/classes;
+            for(int t = out[state] >= 0 ? state : dict[state]; t != 0; t = dict[t]){
+                int start = i+1-lengths[out[t]];
+                if(start < bestStart || (start == bestStart && out[t] < best)){
+                    best = out[t];
+                    bestStart = start;
+                }
+            }
+        }
+        return best < 0 ? null : strings.get(best);
+    }
+}
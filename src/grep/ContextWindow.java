@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.GrepResult;
+
+import java.util.regex.Pattern;
+
+/**
+ * The sliding window of context lines before the current line of a file being
+ * searched.  The window is a fixed-size ring of line offsets whose slots are
+ * reused as the file is read, and no line in it is ever decoded; results only
+ * record where their context begins and ends, and load it from the file when
+ * it is asked for.
+ */
+class ContextWindow {
+    private final LineReader in;
+    private final FileContext source;
+    private final int capacity;
+
+    // ring of the start offsets of the lines before the current line
+    private final long[] starts;
+    private int head = 0; // slot of the oldest line
+    private int size = 0;
+    private int lineNum = 0;
+
+    ContextWindow(LineReader reader, FileContext src, int lines){
+        in = reader;
+        source = src;
+        capacity = lines;
+        starts = new long[lines];
+    }
+
+    /**
+     * Continues numbering lines after the given number of lines, whose last few
+     * start at the given offsets, oldest first.
+     */
+    void resume(int lines, long[] recent){
+        lineNum = lines;
+        for(long start : recent)
+            add(start);
+    }
+
+    /**
+     * The start offsets of the lines in the window, oldest first.
+     */
+    long[] recent(){
+        long[] recent = new long[size];
+        for(int i = 0; i < size; i++)
+            recent[i] = starts[(head+i) % capacity];
+        return recent;
+    }
+
+    /**
+     * Moves the window to the reader's current line.
+     */
+    void advance(){
+        lineNum++;
+    }
+
+    /**
+     * Creates a result for a match on the current line.
+     */
+    GrepResult match(String line, Pattern pattern){
+        long start = in.lineStart();
+        return new GrepResult(lineNum, line, pattern, source,
+                size == 0 ? start : starts[head], start, in.nextLineStart());
+    }
+
+    /**
+     * Adds the current line to the ring of lines before the next line.
+     */
+    void push(){
+        add(in.lineStart());
+    }
+
+    private void add(long start){
+        if(capacity == 0)
+            return;
+        int slot = (head+size) % capacity;
+        if(size == capacity)
+            head = (head+1) % capacity;
+        else
+            size++;
+        starts[slot] = start;
+    }
+}
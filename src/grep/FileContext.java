@@ -0,0 +1,116 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads context lines from a searched file on demand, so results only need to
+ * remember the file offsets of their context rather than the lines themselves.
+ * One instance is shared by every result in a file, and keeps the most recently
+ * read block of the file so that nearby results don't each re-read the file.
+ *
+ * Lines are read from the file as it is when they are requested; if the file
+ * has changed since it was searched the context will not match the result.
+ */
+class FileContext {
+    private static final int BLOCK_SIZE = 64*1024;
+
+    private final File file;
+    private SoftReference<Block> cache = new SoftReference<>(null);
+
+    FileContext(File f){
+        file = f;
+    }
+
+    /**
+     * Decodes up to max lines lying between the given file offsets, the first
+     * line starting at from.
+     */
+    synchronized List<String> lines(long from, long to, int max){
+        ArrayList<String> lines = new ArrayList<>();
+        try {
+            long pos = from;
+            int need = 1;
+            while(lines.size() < max && pos < to){
+                Block b = block(pos, need);
+                int start = (int)(pos-b.offset);
+                if(start >= b.length) // end of file
+                    break;
+                int end = (int)Math.min(b.length, to-b.offset);
+                int i = start;
+                while(i < end && b.bytes[i] != '\n' && b.bytes[i] != '\r')
+                    i++;
+                if((i == b.length || (b.bytes[i] == '\r' && i+1 == b.length)) && !b.eof){
+                    // the line, or a \r\n, continues past this block
+                    need = b.length-start+1;
+                    continue;
+                }
+                lines.add(new String(b.bytes, start, i-start, LineReader.CHARSET));
+                if(i < end && b.bytes[i] == '\r' && i+1 < b.length && b.bytes[i+1] == '\n')
+                    i++;
+                pos = b.offset+i+1;
+                need = 1;
+            }
+        } catch (IOException e) {
+            throw new Grep.GrepException("Failed to read context from "+file, e);
+        }
+        return lines;
+    }
+
+    /**
+     * Returns a block holding at least the need bytes starting at the given
+     * offset, or as many as there are before the end of the file.
+     */
+    private Block block(long pos, int need) throws IOException {
+        Block b = cache.get();
+        // a block which ended the file is read again if more is wanted, as the file may have grown
+        if(b != null && b.offset <= pos && b.offset+b.length-pos >= need)
+            return b;
+        b = new Block();
+        b.offset = pos;
+        b.bytes = new byte[Math.max(BLOCK_SIZE, need*2)];
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.wrap(b.bytes);
+            while(buf.hasRemaining()){
+                if(ch.read(buf, pos+buf.position()) < 0){
+                    b.eof = true;
+                    break;
+                }
+            }
+            b.length = buf.position();
+        }
+        cache = new SoftReference<>(b);
+        return b;
+    }
+
+    private static class Block {
+        long offset;
+        byte[] bytes;
+        int length;
+        boolean eof;
+    }
+}
@@ -18,21 +18,34 @@
  */
 package grep;
 
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileFilter;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Reader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,21 +81,176 @@ public class Grep {
             }
         }
         
+        String patternFile = null;
+        for(String opt : options){
+            if(opt.startsWith("file="))
+                patternFile = opt.substring("file=".length());
+        }
+        if(patternFile != null) // the patterns come from the file rather than the first argument
+            args.add(0,null);
+        
         if(args.size() < 2){
-            System.out.println("Usage: Grep [-r|--recurse] PATTERN PATH [extensions]");
+            System.out.println("Usage: Grep [-r|--recurse] [-i|--ignore-case] [-F|--fixed-strings] [-jN|--threads=N] [--index=DIR] [-I|-a|--binary-files=skip|report|text]\n"
+                    + "            [--include=GLOB] [--exclude=GLOB] [--gitignore] [--cache=FILE]\n"
+                    + "            [--engine=automaton|java] [--line-timeout=MS] [--split-size=MB] [--readers=N]\n"
+                    + "            [-l|--files-with-matches] [-c|--count] [-mN|--max-count=N] [--max-matches=N] [--max-files=N]\n"
+                    + "            [-CN|--context=N] [--format=grep|text|json] [--stats] PATTERN PATH [extensions]\n"
+                    + "       Grep [options] --file=PATTERNS PATH [extensions]");
             return;
         }
         
         if(args.size() == 2){
             args.add("*");
         }
+        
+        int flags = 0;
+        if(options.contains("i") || options.contains("ignore-case"))
+            flags |= Pattern.CASE_INSENSITIVE;
+        if(options.contains("F") || options.contains("fixed-strings"))
+            flags |= Pattern.LITERAL;
+        
+        File root = new File(args.get(1));
+        PathFilter filter = PathFilter.forExtensions(root,args.get(2).split(","));
+        if(options.contains("gitignore"))
+            filter.useIgnoreFiles(".gitignore");
+        Options opts = new Options();
+        ResultWriter.Format format = ResultWriter.Format.TEXT;
+        int context = 0;
+        File cacheFile = null;
+        for(String opt : options){
+            if(opt.startsWith("threads=")){
+                opts.setParallelism(Integer.parseInt(opt.substring("threads=".length())));
+            } else if(opt.startsWith("j") && opt.length() > 1){
+                opts.setParallelism(Integer.parseInt(opt.substring(1)));
+            } else if(opt.startsWith("index=")){
+                opts.setIndex(new File(opt.substring("index=".length())));
+            } else if(opt.startsWith("binary-files=")){
+                opts.setBinaryFiles(BinaryFiles.valueOf(opt.substring("binary-files=".length()).toUpperCase()));
+            } else if(opt.startsWith("engine=")){
+                opts.setEngine(Engine.valueOf(opt.substring("engine=".length()).toUpperCase()));
+            } else if(opt.equals("I")){
+                opts.setBinaryFiles(BinaryFiles.SKIP);
+            } else if(opt.equals("a")){
+                opts.setBinaryFiles(BinaryFiles.TEXT);
+            } else if(opt.startsWith("include=")){
+                filter.include(opt.substring("include=".length()));
+            } else if(opt.startsWith("exclude=")){
+                filter.exclude(opt.substring("exclude=".length()));
+            } else if(opt.startsWith("format=")){
+                format = ResultWriter.Format.valueOf(opt.substring("format=".length()).toUpperCase());
+            } else if(opt.startsWith("context=")){
+                context = Integer.parseInt(opt.substring("context=".length()));
+            } else if(opt.startsWith("C") && opt.length() > 1){
+                context = Integer.parseInt(opt.substring(1));
+            } else if(opt.startsWith("cache=")){
+                cacheFile = new File(opt.substring("cache=".length()));
+            } else if(opt.startsWith("max-count=")){
+                opts.setMaxCount(Integer.parseInt(opt.substring("max-count=".length())));
+            } else if(opt.startsWith("readers=")){
+                opts.setReaders(Integer.parseInt(opt.substring("readers=".length())));
+            } else if(opt.startsWith("split-size=")){
+                opts.setSplitSize(Long.parseLong(opt.substring("split-size=".length()))*1024*1024);
+            } else if(opt.startsWith("line-timeout=")){
+                opts.setLineTimeout(Integer.parseInt(opt.substring("line-timeout=".length())));
+            } else if(opt.startsWith("max-matches=")){
+                opts.setMaxMatches(Integer.parseInt(opt.substring("max-matches=".length())));
+            } else if(opt.startsWith("max-files=")){
+                opts.setMaxFiles(Integer.parseInt(opt.substring("max-files=".length())));
+            } else if(opt.startsWith("m") && opt.length() > 1){
+                opts.setMaxCount(Integer.parseInt(opt.substring(1)));
+            }
+        }
+        if(cacheFile != null){
+            try {
+                opts.setCache(ResultCache.load(cacheFile,ResultCache.DEFAULT_CAPACITY));
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable cache "+cacheFile+": "+e);
+                opts.setCache(new ResultCache());
+            }
+        }
+
+        Pattern pattern;
+        if(patternFile != null){
+            try {
+                pattern = anyOf(Files.readAllLines(new File(patternFile).toPath(),LineReader.CHARSET),flags);
+            } catch (IOException e) {
+                System.err.println("Failed to read patterns from "+patternFile+": "+e);
+                return;
+            }
+        } else {
+            pattern = Pattern.compile(args.get(0),flags);
+        }
 
-        System.out.println(toText(
-                grep(new File(args.get(1)),Pattern.compile(args.get(0)),args.get(2).split(","),options.contains("r") || options.contains("recurse"))));
+        ResultWriter out = new ResultWriter(System.out,format,context);
+        boolean recurse = options.contains("r") || options.contains("recurse");
+        Search search;
+        if(options.contains("c") || options.contains("count")){
+            search = count(root,pattern,filter,recurse,opts,out);
+        } else {
+            if(options.contains("l") || options.contains("files-with-matches")){
+                opts.setMaxCount(1);
+                out.setFilesOnly(true);
+            }
+            search = grep(root,pattern,filter,recurse,opts,out);
+        }
+        if(options.contains("stats"))
+            System.err.print(search.getStats());
+        if(search.isTruncated())
+            System.err.println("Search stopped early, the most matches or files allowed were found.");
+        if(cacheFile != null && !search.isCancelled()){
+            try {
+                opts.cache.save(cacheFile);
+            } catch (IOException e) {
+                System.err.println("Failed to save cache "+cacheFile+": "+e);
+            }
+        }
     }
     
     public static final int MAX_LINES = 10;
     private static volatile boolean stop = false;
+    // lines searched between checks for cancellation, a power of two
+    private static final int CANCEL_CHECK_LINES = 4096;
+    // how long replacing a line may take, since the search may have found it with the automaton in far less
+    private static final long REPLACE_LINE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    
+    /**
+     * Returns a pattern matching any of the given patterns, so that a list of
+     * patterns can be searched for in a single pass.  With Pattern.LITERAL in
+     * the flags each string is matched literally; when every one is a literal
+     * string the search uses an Aho-Corasick automaton, whose speed hardly
+     * depends on how many there are.  Empty strings are ignored.  Each result's
+     * {@link GrepResult#getMatchedPattern} tells which pattern it matched.
+     * @throws GrepException if no non-empty pattern is given
+     */
+    public static Pattern anyOf(Collection<String> patterns, int flags){
+        boolean literal = (flags & Pattern.LITERAL) != 0;
+        StringBuilder sb = new StringBuilder();
+        for(String p : patterns){
+            if(p.isEmpty())
+                continue;
+            if(sb.length() > 0)
+                sb.append('|');
+            if(!literal)
+                sb.append("(?:").append(p).append(')');
+            else if(needsQuoting(p,flags))
+                sb.append(Pattern.quote(p));
+            else
+                sb.append(p);
+        }
+        if(sb.length() == 0)
+            throw new GrepException("No patterns to search for.");
+        return Pattern.compile(sb.toString(),flags & ~Pattern.LITERAL);
+    }
+    
+    private static boolean needsQuoting(String str, int flags){
+        if((flags & Pattern.COMMENTS) != 0)
+            return true;
+        for(int i = 0; i < str.length(); i++){
+            if("\\^$.|?*+()[]{}".indexOf(str.charAt(i)) >= 0)
+                return true;
+        }
+        return false;
+    }
     
     public static String toText(HashMap<File,ArrayList<GrepResult>> res){
         return toText(res,0);
@@ -90,45 +258,235 @@ public class Grep {
     
     public static String toText(HashMap<File,ArrayList<GrepResult>> res, int context){
         // TODO should output relative to search location
-        String out = "";
-        for(Entry<File,ArrayList<GrepResult>> e : res.entrySet()){
-            out += e.getKey().getName()+"\n";
-            for(GrepResult gr : e.getValue()){
-                out += " Match on Line "+gr.getLineNumber()+":\n";
-                List<String> bef = gr.getLinesBefore(context);
-                for(String ln : bef)
-                    out += "   "+ln+"\n";
-                out += " * "+gr.getLine()+"\n";
-                List<String> aft = gr.getLinesBefore(context);
-                for(String ln : aft)
-                    out += "   "+ln+"\n";
+        StringWriter out = new StringWriter();
+        ResultWriter writer = new ResultWriter(out,ResultWriter.Format.TEXT,context);
+        try {
+            for(Entry<File,ArrayList<GrepResult>> e : res.entrySet()){
+                writer.write(e.getKey(),e.getValue());
             }
+        } catch (IOException e) {
+            throw new AssertionError(e); // StringWriter doesn't throw
         }
-        return out;
+        return out.toString();
     }
     
     public static HashMap<File,ArrayList<GrepResult>> grep(File file, Pattern pattern, FileFilter ff, boolean recursive){
-        HashMap<File,ArrayList<GrepResult>> res = new HashMap<>();
+        return grep(file,pattern,ff,recursive,1);
+    }
+    
+    /**
+     * Searches the given file or directory using a work-stealing pool of the given
+     * parallelism.  Directory listings and individual files are split into separate
+     * tasks, so both traversal and file searching are spread over all the workers.
+     * A parallelism of 1 searches on the calling thread, exactly like
+     * {@link #grep(File, Pattern, FileFilter, boolean)}.
+     * @param parallelism number of worker threads to search with, must be positive
+     */
+    public static HashMap<File,ArrayList<GrepResult>> grep(File file, Pattern pattern, FileFilter ff, boolean recursive, int parallelism){
+        return grep(file,pattern,ff,recursive,new Options().setParallelism(parallelism));
+    }
+    
+    public static HashMap<File,ArrayList<GrepResult>> grep(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts){
+        ResultCollector res = new ResultCollector();
+        grep(file,pattern,ff,recursive,opts,res);
+        return res.results;
+    }
+    
+    /**
+     * Searches the given file or directory, passing the matches in each file to the
+     * listener as soon as that file has been searched rather than collecting them.
+     * When the parallelism is greater than 1 the listener is called concurrently
+     * from the worker threads, and must be thread safe.
+     * @param parallelism number of worker threads to search with, must be positive
+     */
+    public static void grep(File file, Pattern pattern, FileFilter ff, boolean recursive, int parallelism, GrepListener listener){
+        grep(file,pattern,ff,recursive,new Options().setParallelism(parallelism),listener);
+    }
+    
+    /**
+     * Searches the given file or directory as configured by the given options,
+     * passing the matches in each file to the listener as soon as that file has
+     * been searched.
+     * @return the finished search, with its {@link Search#getStats() statistics}
+     */
+    public static Search grep(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts, GrepListener listener){
+        Search search = new Search(listener);
+        try {
+            runSearch(file,pattern,ff,recursive,opts,search);
+        } finally {
+            search.finish(null);
+        }
+        return search;
+    }
+    
+    /**
+     * Counts the matches in each file under the given file or directory,
+     * without keeping the matched lines or their context.
+     * @return the number of matches in each file with any
+     */
+    public static HashMap<File,Integer> count(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts){
+        final HashMap<File,Integer> counts = new HashMap<>();
+        count(file,pattern,ff,recursive,opts,new CountListener() {
+            @Override
+            public synchronized void counted(File f, int count){
+                counts.put(f,count);
+            }
+        });
+        return counts;
+    }
+    
+    /**
+     * Counts the matches in each file under the given file or directory,
+     * passing each file's count to the listener as soon as it has been
+     * searched.  Like {@link #grep(File, Pattern, FileFilter, boolean, Options, GrepListener)}
+     * the listener may be called concurrently from the worker threads.
+     * @return the finished search, with its {@link Search#getStats() statistics}
+     */
+    public static Search count(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts, CountListener listener){
+        Search search = new Search(listener);
+        try {
+            runSearch(file,pattern,ff,recursive,opts,search);
+        } finally {
+            search.finish(null);
+        }
+        return search;
+    }
+    
+    /**
+     * Starts searching the given file or directory on a new background thread,
+     * passing the matches in each file to the listener as soon as that file has
+     * been searched.  The returned Search can cancel, monitor and wait for this
+     * search, and any number of searches can run at the same time.
+     */
+    public static Search start(final File file, final Pattern pattern, final FileFilter ff, final boolean recursive,
+            final Options opts, GrepListener listener){
+        final Search search = new Search(listener);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Throwable failure = null;
+                try {
+                    runSearch(file,pattern,ff,recursive,opts,search);
+                } catch (GrepStopException e) {
+                    search.cancel();
+                } catch (RuntimeException | Error e) { // such as running out of memory, reported by await
+                    failure = e;
+                } finally {
+                    search.finish(failure);
+                }
+            }
+        }, "jGrep search");
+        thread.setDaemon(true);
+        thread.start();
+        return search;
+    }
+    
+    private static void runSearch(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts, Search search){
+        search.setLimits(opts);
+        Object event = SearchRecorder.INSTANCE.searchStarted();
+        try {
+            grep(file,pattern,ff,recursive,opts,search);
+        } finally {
+            search.stats.finished();
+            SearchRecorder.INSTANCE.searchFinished(event,file,pattern,search.stats);
+        }
+    }
+    
+    private static void grep(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts, Search search){
+        List<File> candidates = null;
+        if(opts.indexDir != null && file.isDirectory()){
+            long start = System.nanoTime();
+            try {
+                TrigramIndex index = TrigramIndex.open(file,opts.indexDir);
+                index.update();
+                candidates = accepted(file,index.candidates(pattern),ff,recursive);
+            } catch (IOException e) {
+                // TODO Improve error reporting
+                System.err.println(e); // fall back to searching every file
+            }
+            search.stats.indexed(System.nanoTime()-start);
+        }
+        if(opts.readers > 0){
+            SearchPipeline.run(file,candidates,pattern,ff,recursive,opts,search);
+            return;
+        }
+        if(opts.parallelism == 1){
+            if(candidates == null){
+                grepTree(file,pattern,ff,recursive,opts,search);
+                return;
+            }
+            for(File f : candidates){
+                searchFile(f,pattern,opts,search);
+            }
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(opts.parallelism);
+        try {
+            if(candidates == null)
+                pool.invoke(new GrepTask(file,pattern,ff,recursive,opts,search));
+            else
+                pool.invoke(new GrepTask(candidates,pattern,opts,search));
+        } finally {
+            shutdown(pool);
+        }
+    }
+    
+    /**
+     * Stops a pool and waits for the tasks still running in it, so nothing is
+     * passed to a listener once the search has returned.  invoke returns as
+     * soon as any task fails or the search stops, while its siblings may still
+     * be finishing the file they're searching.
+     */
+    static void shutdown(ForkJoinPool pool){
+        pool.shutdownNow();
+        boolean interrupted = false;
+        while(true){
+            try {
+                if(pool.awaitTermination(1,TimeUnit.MINUTES))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+    
+    /**
+     * Returns the files under root the filter would have reached in a normal
+     * search, checking each directory along the way as well as the file itself.
+     */
+    private static List<File> accepted(File root, List<File> files, FileFilter ff, boolean recursive){
+        ArrayList<File> res = new ArrayList<>();
+        for(File f : files){
+            File parent = f.getParentFile();
+            if(!ff.accept(f) || (!recursive && !parent.equals(root)))
+                continue;
+            while(!parent.equals(root) && ff.accept(parent)){
+                parent = parent.getParentFile();
+            }
+            if(parent.equals(root))
+                res.add(f);
+        }
+        return res;
+    }
+    
+    private static void grepTree(File file, Pattern pattern, FileFilter ff, boolean recursive, Options opts, Search search){
         if(!file.isDirectory()){
-            ArrayList<GrepResult> ret = grepFile(file,pattern);
-            if(ret.size() > 0)
-                res.put(file,ret);
-            return res;
+            searchFile(file,pattern,opts,search);
+            return;
         }
-        File[] list = file.listFiles(ff);
+        File[] list = list(file,ff,search);
         if(list == null) // just in case there's an IO error
-            return res;
+            return;
         for(File f : list){
             if(f.isDirectory()){
                 if(recursive)
-                    res.putAll(grep(f,pattern,ff,recursive));
+                    grepTree(f,pattern,ff,recursive,opts,search);
             } else {
-                ArrayList<GrepResult> ret = grepFile(f,pattern);
-                if(ret.size() > 0)
-                    res.put(f,ret);
+                searchFile(f,pattern,opts,search);
             }
         }
-        return res;
     }
     
     public static HashMap<File,ArrayList<GrepResult>> grep(File file, String pattern, FileFilter ff, boolean recursive){
@@ -136,102 +494,602 @@ public class Grep {
     }
     
     public static HashMap<File,ArrayList<GrepResult>> grep(File file, Pattern pattern, String[] extensions, boolean recursive){
-        FileFilter ff = new ExtensionFilter(extensions);
+        FileFilter ff = PathFilter.forExtensions(file,extensions);
         return grep(file,pattern,ff,recursive);
     }
     
+    public static HashMap<File,ArrayList<GrepResult>> grep(File file, Pattern pattern, String[] extensions, boolean recursive, int parallelism){
+        FileFilter ff = PathFilter.forExtensions(file,extensions);
+        return grep(file,pattern,ff,recursive,parallelism);
+    }
+    
+    public static void grep(File file, Pattern pattern, String[] extensions, boolean recursive, int parallelism, GrepListener listener){
+        FileFilter ff = PathFilter.forExtensions(file,extensions);
+        grep(file,pattern,ff,recursive,parallelism,listener);
+    }
+    
+    public static void grep(File file, Pattern pattern, String[] extensions, boolean recursive, Options opts, GrepListener listener){
+        FileFilter ff = PathFilter.forExtensions(file,extensions);
+        grep(file,pattern,ff,recursive,opts,listener);
+    }
+    
     public static ArrayList<GrepResult> grepFile(File file, Pattern pattern){
+        return grepFile(file,pattern,new Options());
+    }
+    
+    /**
+     * Searches a single file.  Binary files are skipped, searched as text, or
+     * searched only until the first match as the options specify; in the last
+     * case the file's only result is a {@link GrepResult#isBinary() binary match}.
+     */
+    public static ArrayList<GrepResult> grepFile(File file, Pattern pattern, Options opts){
+        return grepFile(file,pattern,opts,null);
+    }
+    
+    /**
+     * Searches a single file, checking every so often whether the search, which
+     * may be null, was cancelled or Grep was stopped.
+     */
+    static ArrayList<GrepResult> grepFile(File file, Pattern pattern, Options opts, Search search){
+        return grepFile(file,pattern,opts,search,null);
+    }
+    
+    /**
+     * Searches a single file, or if a tail is given only the lines after where
+     * it left off, moving it to the end of the last complete line searched.
+     * Tails bypass the result cache.
+     */
+    static ArrayList<GrepResult> grepFile(File file, Pattern pattern, Options opts, Search search, FileTail tail){
         ArrayList<GrepResult> res = new ArrayList<>();
-        try (Scanner in = new Scanner(file)) {
-            LinkedList<String> curLines = new LinkedList<>();
-            int lineNum = 1;
-            while(in.hasNextLine() && curLines.size() < MAX_LINES*2+1){
-                curLines.add(in.nextLine());
-            }
-            for(int i = 0; i < MAX_LINES && i < curLines.size(); i++){ // invariant: the lines less than MAX_LINES
-                GrepResult gr = makeMatch(i,curLines,pattern,lineNum++);
-                if(gr != null)
-                    res.add(gr);
+        scanFile(file,pattern,opts,search,tail,res,null,null,true);
+        return res;
+    }
+    
+    /**
+     * Counts the results a search of a single file would find, without keeping
+     * the matched lines or their context.  With {@link Options#setMaxCount} the
+     * file is only read up to the last result counted.
+     */
+    public static int countFile(File file, Pattern pattern, Options opts){
+        return countFile(file,pattern,opts,null);
+    }
+    
+    static int countFile(File file, Pattern pattern, Options opts, Search search){
+        return scanFile(file,pattern,opts,search,null,null,null,null,true);
+    }
+    
+    /**
+     * Searches a file, adding its results to res, or only counting them if res
+     * is null, and returns how many there are.  If preread is given the file's
+     * contents have already been read into it, and prestamp is the cache stamp
+     * taken before they were read, so results of an older version of a file
+     * which changed since are never cached as current.  Large files are only
+     * split if split is true.
+     */
+    private static int scanFile(File file, Pattern pattern, Options opts, Search search, FileTail tail, ArrayList<GrepResult> res,
+            LineReader preread, ResultCache.Entry prestamp, boolean split){
+        checkStopped(search);
+        ResultCache.Entry stamp = null;
+        if(opts.cache != null && tail == null){
+            stamp = preread != null ? prestamp : opts.cache.stamp(file,pattern,opts.binaryFiles);
+            ArrayList<GrepResult> cached = stamp == null ? null : opts.cache.get(stamp);
+            if(cached != null){
+                int found = 0;
+                while(found < Math.min(cached.size(),opts.maxCount) && (search == null || search.admit(found == 0))){
+                    found++;
+                }
+                if(search != null)
+                    search.stats.fileCached(found);
+                if(res != null)
+                    res.addAll(cached.subList(0,found));
+                return found;
             }
-            while(in.hasNextLine()){ // invariant: the lines between MAX_LINES+1 and END-(MAX_LINES-1)
-                GrepResult gr = makeMatch(MAX_LINES,curLines,pattern,lineNum++);
-                if(gr != null)
-                    res.add(gr);
-                curLines.remove();
-                curLines.add(in.nextLine());
+        }
+        long start = System.nanoTime();
+        Object event = SearchRecorder.INSTANCE.fileStarted();
+        int found = 0;
+        try (LineReader in = preread != null ? preread : new LineReader(file,tail == null ? 0 : tail.offset)) {
+            boolean binary;
+            if(tail == null || tail.offset == 0){
+                binary = opts.binaryFiles != BinaryFiles.TEXT && in.isBinary();
+                if(tail != null)
+                    tail.binary = binary;
+            } else {
+                binary = tail.binary;
             }
-            for(int i = 0; i <= MAX_LINES && curLines.size() > MAX_LINES; i++){ // invariant: the lines after END-(MAX_LINES-1)
-                GrepResult gr = makeMatch(MAX_LINES,curLines,pattern,lineNum++);
+            if(binary && opts.binaryFiles == BinaryFiles.SKIP){
+                if(search != null)
+                    search.stats.fileSkipped();
+                if(stamp != null)
+                    opts.cache.put(stamp,new ArrayList<GrepResult>());
+                return 0;
+            }
+            if(split && tail == null && preread == null && !binary && opts.parallelism > 1 && file.length() > opts.splitSize)
+                return scanPieces(file,pattern,opts,search,stamp,res,start,event);
+            ContextWindow context = res == null ? null : new ContextWindow(in,new FileContext(file),MAX_LINES);
+            if(tail != null)
+                context.resume(tail.lines,tail.recent);
+            LineScan scan = new LineScan(pattern,opts,search,true,res);
+            scan.completeEnd = tail == null ? 0 : tail.offset;
+            scan.run(in,Long.MAX_VALUE,binary,context,tail != null);
+            found = scan.found;
+            if(search != null)
+                search.stats.fileSearched(file,System.nanoTime()-start,in.bytesRead(),in.readNanos(),scan.lines,found);
+            SearchRecorder.INSTANCE.fileFinished(event,file,in.bytesRead(),scan.lines,found);
+            if(stamp != null && res != null && scan.whole) // only whole files are cached
+                opts.cache.put(stamp,res);
+            if(tail != null){
+                long[] recent = context.recent();
+                if(scan.lines > scan.complete) // the last line may not be finished yet
+                    recent = Arrays.copyOf(recent,Math.max(0,recent.length-1));
+                tail.offset = scan.completeEnd;
+                tail.lines += scan.complete;
+                tail.recent = recent;
+            }
+        } catch (IOException e) {
+            if(tail != null)
+                tail.offset = 0;
+            if(search != null)
+                search.stats.fileSkipped();
+            // TODO Improve error reporting
+            System.err.println(describe(file,e));
+        }
+        return found;
+    }
+    
+    /**
+     * Describes a failure to read a file as grep does, path first, since
+     * FileChannel's exceptions don't all name the file.
+     */
+    static String describe(File file, IOException e){
+        String reason;
+        if(e instanceof NoSuchFileException)
+            reason = "No such file or directory";
+        else if(e instanceof AccessDeniedException)
+            reason = "Permission denied";
+        else if(e instanceof FileSystemException)
+            reason = ((FileSystemException)e).getReason();
+        else
+            reason = e.getMessage();
+        return file+": "+(reason == null ? e.getClass().getSimpleName() : reason);
+    }
+    
+    /**
+     * Searches a large file in pieces of about {@link Options#setSplitSize}
+     * bytes, starting at line boundaries, in parallel, then puts the pieces'
+     * results back together in order: their line numbers are offset by the
+     * lines in the pieces before them, and the context before results near the
+     * start of a piece is extended back into the piece before.  Results are
+     * only admitted to the search's budget once they're in order, so limits
+     * keep the first results in the file, as a sequential search would.
+     */
+    private static int scanPieces(File file, Pattern pattern, Options opts, Search search, ResultCache.Entry stamp,
+            ArrayList<GrepResult> res, long start, Object event) throws IOException {
+        long size = file.length();
+        int count = (int)Math.min(Integer.MAX_VALUE, (size+opts.splitSize-1)/opts.splitSize);
+        final ArrayList<Piece> pieces = new ArrayList<>(count);
+        FileContext source = res == null ? null : new FileContext(file);
+        long from = 0;
+        for(int i = 1; i <= count && from < size; i++){
+            long to = i == count ? size : lineBoundary(file,size/count*i);
+            if(to > from)
+                pieces.add(new Piece(file,from,to,pattern,opts,search,source));
+            from = to;
+        }
+        RecursiveAction all = new RecursiveAction() {
+            private static final long serialVersionUID = 2450846610039249960L;
+            @Override
+            protected void compute(){
+                invokeAll(pieces);
+            }
+        };
+        if(ForkJoinTask.inForkJoinPool()){
+            all.invoke();
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(opts.parallelism);
+            try {
+                pool.invoke(all);
+            } finally {
+                shutdown(pool);
+            }
+        }
+        
+        int found = 0;
+        int lines = 0; // before the current piece
+        long scanned = 0;
+        long bytes = 0;
+        long readNanos = 0;
+        boolean whole = true;
+        long[] recent = new long[0]; // starts of the last lines before the current piece
+        merge:
+        for(Piece p : pieces){
+            if(p.failure != null)
+                throw p.failure;
+            LineScan scan = p.scan;
+            scanned += scan.lines;
+            bytes += p.bytesRead;
+            readNanos += p.readNanos;
+            whole &= scan.whole;
+            int results = res == null ? scan.found : scan.res.size();
+            for(int i = 0; i < results; i++){
+                GrepResult gr = res == null ? null : scan.res.get(i);
+                if(gr != null){
+                    if(gr.lineNum <= MAX_LINES && recent.length > 0) // its context starts in earlier pieces
+                        gr.beforeStart = recent[Math.max(0,recent.length-(MAX_LINES-gr.lineNum+1))];
+                    gr.lineNum += lines;
+                }
+                if(gr == null || !gr.isTimedOut()){
+                    if(search != null && !search.admit(found == 0)){
+                        whole = false;
+                        break merge;
+                    }
+                    found++;
+                }
                 if(gr != null)
                     res.add(gr);
-                curLines.remove();
+                if(found == opts.maxCount){
+                    whole = false;
+                    break merge;
+                }
+            }
+            lines += scan.lines;
+            if(p.recent != null){
+                long[] joined = Arrays.copyOf(recent,recent.length+p.recent.length);
+                System.arraycopy(p.recent,0,joined,recent.length,p.recent.length);
+                recent = Arrays.copyOfRange(joined,Math.max(0,joined.length-MAX_LINES),joined.length);
             }
-            in.close();
-        } catch (FileNotFoundException e) {
-            // TODO Improve error reporting
-            System.err.println(e);
         }
-        return res;
+        if(search != null)
+            search.stats.fileSearched(file,System.nanoTime()-start,bytes,readNanos,scanned,found);
+        SearchRecorder.INSTANCE.fileFinished(event,file,bytes,scanned,found);
+        if(stamp != null && res != null && whole)
+            opts.cache.put(stamp,res);
+        return found;
     }
     
-    private static GrepResult makeMatch(int i, LinkedList<String> lines, Pattern pattern, int lineNum){
-        if(stop){
-            throw new GrepStopException("Grep is stopped.  Grep must be manually restarted to use.");
+    /**
+     * Returns the offset of the first line starting at or after the given
+     * offset, or the file's size if there is none.
+     */
+    private static long lineBoundary(File file, long offset) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file,"r")) {
+            long pos = offset-1; // a terminator just before the offset ends a line there
+            in.seek(pos);
+            byte[] buf = new byte[8192];
+            int n;
+            while((n = in.read(buf)) > 0){
+                for(int i = 0; i < n; i++){
+                    if(buf[i] == '\n')
+                        return pos+i+1;
+                    if(buf[i] == '\r'){ // unless it's the \r of a \r\n
+                        int next = i+1 < n ? buf[i+1] : in.read();
+                        if(next != '\n')
+                            return pos+i+1;
+                    }
+                }
+                pos += n;
+                in.seek(pos);
+            }
+            return in.length();
+        }
+    }
+    
+    /**
+     * Searches the lines of a file, or of one piece of a file, and tallies
+     * what it found.  The matchers are per thread, so a scan must run on the
+     * thread which created it.
+     */
+    private static class LineScan {
+        private final Pattern pattern;
+        private final Options opts;
+        private final Search search;
+        private final boolean admit; // whether to admit results to the search's budget as they're found
+        final ArrayList<GrepResult> res;
+        private final LineMatcher m;
+        private final LiteralMatcher lit;
+        // when the pattern isn't just literals, a literal it requires rules out most lines cheaply
+        private final LiteralMatcher required;
+        int lines = 0;
+        int found = 0;
+        boolean whole = true; // whether every line was searched
+        int complete = 0; // lines with a terminator, when following a tail
+        long completeEnd = 0;
+        
+        LineScan(Pattern pat, Options o, Search s, boolean adm, ArrayList<GrepResult> r){
+            pattern = pat;
+            opts = o;
+            search = s;
+            admit = adm;
+            res = r;
+            m = LineMatcher.forPattern(pattern,opts.engine,opts.lineTimeout);
+            lit = LiteralMatcher.forPattern(pattern);
+            required = lit == null ? LiteralMatcher.prefilter(pattern) : null;
+        }
+        
+        /**
+         * Searches the lines from the reader's position up to the first one
+         * starting at or after end.
+         * @param tail whether to track the complete lines, for a tail
+         */
+        void run(LineReader in, long end, boolean binary, ContextWindow context, boolean tail) throws IOException {
+            while(in.next()){
+                if(in.lineStart() >= end)
+                    break;
+                if((++lines & (CANCEL_CHECK_LINES-1)) == 0){
+                    checkStopped(search);
+                    if(search != null && search.isTruncated()){
+                        whole = false;
+                        break;
+                    }
+                }
+                if(tail && in.nextLineStart() > in.lineEnd()){
+                    complete = lines;
+                    completeEnd = in.nextLineStart();
+                }
+                if(context != null)
+                    context.advance();
+                boolean matched;
+                try {
+                    matched = lit != null ? in.contains(lit)
+                            : (required == null || in.contains(required)) && m.find(in.chars());
+                } catch (LineMatcher.TimedOut e) {
+                    matched = false;
+                    whole = false; // a longer timeout could find more
+                    if(search != null)
+                        search.stats.lineTimedOut();
+                    if(res != null && !binary)
+                        res.add(context.match(in.line(),pattern).setTimedOut());
+                }
+                if(matched){
+                    if(admit && search != null && !search.admit(found == 0)){
+                        whole = false;
+                        break;
+                    }
+                    found++;
+                    if(binary){
+                        if(res != null)
+                            res.add(GrepResult.binaryMatch(pattern));
+                        break;
+                    }
+                    if(res != null){
+                        GrepResult gr = context.match(in.line(),pattern);
+                        if(lit instanceof AhoCorasick)
+                            gr.setMatchedPattern(in.firstLiteral((AhoCorasick)lit));
+                        res.add(gr);
+                    }
+                    if(found == opts.maxCount){
+                        whole = false;
+                        if(context != null) // the line is still context for a tail resumed after it
+                            context.push();
+                        break;
+                    }
+                }
+                if(context != null)
+                    context.push();
+            }
+        }
+    }
+    
+    /**
+     * Searches one piece of a file split by {@link #scanPieces}, numbering its
+     * lines from 1 and leaving its results to be admitted to the search's
+     * budget once they're put in order.
+     */
+    private static class Piece extends RecursiveAction {
+        private static final long serialVersionUID = -585348675237161068L;
+        
+        private final File file;
+        private final long from;
+        private final long to;
+        private final Pattern pattern;
+        private final Options opts;
+        private final Search search;
+        private final FileContext source; // null to only count
+        LineScan scan;
+        long[] recent; // starts of the piece's last lines
+        long bytesRead;
+        long readNanos;
+        IOException failure;
+        
+        Piece(File f, long fr, long t, Pattern pat, Options o, Search s, FileContext src){
+            file = f;
+            from = fr;
+            to = t;
+            pattern = pat;
+            opts = o;
+            search = s;
+            source = src;
         }
-        String ln = lines.get(i);
-        Matcher m = pattern.matcher(ln);
-        if(m.find()){
-            return new GrepResult(lineNum,ln,m,lines.subList(0, i),lines.subList(i+1, lines.size()));
+        
+        @Override
+        protected void compute(){
+            try (LineReader in = new LineReader(file,from)) {
+                scan = new LineScan(pattern,opts,search,false,source == null ? null : new ArrayList<GrepResult>());
+                ContextWindow context = source == null ? null : new ContextWindow(in,source,MAX_LINES);
+                scan.run(in,to,false,context,false);
+                recent = context == null ? null : context.recent();
+                bytesRead = in.bytesRead();
+                readNanos = in.readNanos();
+            } catch (IOException e) {
+                failure = e;
+            }
         }
-        return null;
+    }
+    
+    private static void searchFile(File file, Pattern pattern, Options opts, Search search){
+        searchFile(file,null,null,true,pattern,opts,search);
+    }
+    
+    /**
+     * Searches a file and passes its results to the search's listener, reading
+     * it from preread if it's been read already, in which case stamp is the
+     * cache stamp taken before it was read.  A large file is split into pieces
+     * searched in parallel only if split is true; threads outside a ForkJoinPool
+     * would otherwise each start a pool of their own.
+     */
+    static void searchFile(File file, LineReader preread, ResultCache.Entry stamp, boolean split, Pattern pattern,
+            Options opts, Search search){
+        if(search.isTruncated())
+            return;
+        if(search.counter != null){
+            search.counted(file,scanFile(file,pattern,opts,search,null,null,preread,stamp,split));
+        } else {
+            ArrayList<GrepResult> res = new ArrayList<>();
+            scanFile(file,pattern,opts,search,null,res,preread,stamp,split);
+            search.searched(file,res);
+        }
+    }
+    
+    static File[] list(File dir, FileFilter ff, Search search){
+        if(search.isTruncated()) // nothing more will be searched
+            return null;
+        long start = System.nanoTime();
+        File[] list = dir.listFiles(ff);
+        search.stats.listed(System.nanoTime()-start);
+        return list;
+    }
+    
+    static void checkStopped(Search search){
+        if(stop)
+            throw new GrepStopException("Grep is stopped.  Grep must be manually restarted to use.");
+        if(search != null && search.isCancelled())
+            throw new GrepStopException("Search was cancelled.");
     }
     
     public static void replace(HashMap<File,ArrayList<GrepResult>> result, String replace) throws IOException{
+        replace(result,replace,1);
+    }
+    
+    /**
+     * Replaces the matches on each result's line with the replacement string, as
+     * Matcher.replaceAll does.  Each file is streamed once into a temporary file
+     * beside it, copying unchanged lines and every line terminator byte for byte,
+     * and the temporary file is then atomically moved over the original.  A
+     * failure or crash therefore leaves every file either fully replaced or
+     * untouched, and no backup files behind.  Lines which take more than a
+     * second to match again are left unchanged, as timed out results are.
+     * @param parallelism number of files to replace at once, must be positive
+     * @throws IllegalArgumentException if the replacement string is invalid for the pattern
+     * @throws IOException if any file could not be replaced, after replacing all the others
+     */
+    public static void replace(HashMap<File,ArrayList<GrepResult>> result, String replace, int parallelism) throws IOException{
         if(result == null)
             return;
-        ArrayList<File> origs = new ArrayList<>();
+        if(parallelism < 1)
+            throw new GrepException("Invalid parallelism, must be positive.");
+        for(ArrayList<GrepResult> res : result.values()){
+            if(!res.isEmpty() && !res.get(0).isBinary() && !res.get(0).isTimedOut()){
+                try { // fail before changing anything
+                    res.get(0).boundedMatcher().replaceAll(replace);
+                } catch (IndexOutOfBoundsException e) { // a group the pattern doesn't have
+                    throw new IllegalArgumentException(e.getMessage(), e);
+                } catch (LineMatcher.TimedOut e) {
+                    continue; // try a quicker line
+                }
+                break;
+            }
+        }
+        ArrayList<ReplaceTask> tasks = new ArrayList<>(result.size());
         for(Entry<File,ArrayList<GrepResult>> e : result.entrySet()){
-            File f = e.getKey();
-            ArrayList<GrepResult> al = e.getValue();
-    
-            String forigStr = f.getAbsolutePath()+".orig";
-            File forig = new File(forigStr);
-            for(int i = 1; forig.exists(); i++){
-                forig = new File(forig.getAbsolutePath()+i);
-            }
-            if(!f.renameTo(forig))
-                throw new IOException("Failed to rename File.");
-            origs.add(forig);
-            
-            String eol = FileFormat.getEOL(forig);
-            try (Scanner in = new Scanner(forig);
-            FileWriter out = new FileWriter(f)) {
-                int line = 0;
-                int nextMatch = 0;
-                while(in.hasNextLine()){
-                    String inLine = in.nextLine();
-                    line++;
-                    if(!in.hasNextLine()) // if we're on the last line, we don't want to append /another/ line
-                        eol = "";
-                    if(nextMatch < al.size() && line == al.get(nextMatch).getLineNumber()){
-                        out.write(al.get(nextMatch).getMatcher().replaceAll(replace)+eol);
-                        nextMatch++;
+            tasks.add(new ReplaceTask(e.getKey(),e.getValue(),replace));
+        }
+        if(parallelism == 1){
+            for(ReplaceTask t : tasks){
+                t.invoke();
+            }
+        } else {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                for(ReplaceTask t : tasks){
+                    pool.execute(t);
+                }
+                for(ReplaceTask t : tasks){
+                    t.join();
+                }
+            } finally {
+                shutdown(pool);
+            }
+        }
+        IOException failure = null;
+        for(ReplaceTask t : tasks){
+            if(t.failure == null)
+                continue;
+            if(failure == null)
+                failure = t.failure;
+            else
+                failure.addSuppressed(t.failure);
+        }
+        if(failure != null)
+            throw failure;
+    }
+    
+    private static void replaceFile(File file, List<GrepResult> results, String replace) throws IOException {
+        int[] lines = new int[results.size()];
+        int count = 0;
+        for(GrepResult gr : results){
+            if(!gr.isBinary() && !gr.isTimedOut())
+                lines[count++] = gr.getLineNumber();
+        }
+        if(count == 0)
+            return;
+        Arrays.sort(lines,0,count);
+        Matcher m = results.get(0).pattern.matcher("");
+        Path path = file.toPath().toAbsolutePath();
+        Path tmp = Files.createTempFile(path.getParent(),"."+file.getName()+".",".tmp");
+        try {
+            try (LineReader in = new LineReader(file);
+                    OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+                int lineNum = 0;
+                int next = 0;
+                while(in.next()){
+                    lineNum++;
+                    if(next < count && lines[next] == lineNum && replaceLine(m,in.chars(),replace,out)){
+                        in.copyTerminator(out);
                     } else {
-                        out.write(inLine+eol);
+                        in.copyLine(out);
                     }
+                    while(next < count && lines[next] <= lineNum)
+                        next++;
                 }
             }
+            try {
+                Files.setPosixFilePermissions(tmp,Files.getPosixFilePermissions(path));
+            } catch (UnsupportedOperationException e) {
+                // not a POSIX file system, the temporary file has the default permissions
+            }
+            try {
+                Files.move(tmp,path,StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp,path,StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
         }
-        
-        for(File orig : origs){
-            orig.delete();
+    }
+    
+    /**
+     * Writes the line with its matches replaced, returning false without writing
+     * anything if it doesn't match or takes more than REPLACE_LINE_NANOS to.
+     */
+    private static boolean replaceLine(Matcher m, CharSequence line, String replace, OutputStream out) throws IOException {
+        String replaced;
+        try {
+            m.reset(LineMatcher.bounded(line,System.nanoTime()+REPLACE_LINE_NANOS));
+            if(!m.find())
+                return false;
+            replaced = m.replaceAll(replace);
+        } catch (LineMatcher.TimedOut e) {
+            return false;
         }
+        out.write(replaced.getBytes(LineReader.CHARSET));
+        return true;
     }
     
     /**
-     * Used to interrupt a Grep search.  Since Grep makes no promises of being
-     * thread safe, it should not be running more than one search at a time, but
-     * this method will stop all searches.  If a Grep search is running while this
+     * Used to interrupt every Grep search.  To cancel a single search, start it
+     * with {@link #start(File, Pattern, FileFilter, boolean, Options, GrepListener) start}
+     * and cancel the returned {@link Search}.  If a Grep search is running while this
      * method is set, a GrepStopException - which extends RuntimeException - will be
      * thrown, and should be handled inside the thread running the search.  Note that
      * once Grep is locked, it must be manually unlocked once it is safe to do so.
@@ -242,21 +1100,539 @@ public class Grep {
         stop = lock;
     }
     
+    /**
+     * Settings for a search beyond the file, pattern and filter to search with.
+     * Setters return the Options object, so they can be chained.
+     */
+    public static class Options {
+        int parallelism = 1;
+        File indexDir = null;
+        BinaryFiles binaryFiles = BinaryFiles.REPORT;
+        ResultCache cache = null;
+        int maxCount = Integer.MAX_VALUE;
+        int maxMatches = Integer.MAX_VALUE;
+        int maxFiles = Integer.MAX_VALUE;
+        Engine engine = Engine.AUTOMATON;
+        long lineTimeout = 0; // nanoseconds, or 0 for no limit
+        long splitSize = Long.MAX_VALUE;
+        int readers = 0;
+        
+        /**
+         * Sets the number of worker threads to search with, 1 by default which
+         * searches on the calling thread.
+         */
+        public Options setParallelism(int threads){
+            if(threads < 1)
+                throw new GrepException("Invalid parallelism, must be positive.");
+            parallelism = threads;
+            return this;
+        }
+        
+        /**
+         * Narrows directory searches down to the files that could match using the
+         * {@link TrigramIndex} stored in the given directory, which is created or
+         * brought up to date first.  Null, the default, searches every file.
+         */
+        public Options setIndex(File dir){
+            indexDir = dir;
+            return this;
+        }
+        
+        /**
+         * Sets how files that look binary are searched, {@link BinaryFiles#REPORT}
+         * by default.
+         */
+        public Options setBinaryFiles(BinaryFiles mode){
+            if(mode == null)
+                throw new GrepException("Invalid binary file mode, must not be null.");
+            binaryFiles = mode;
+            return this;
+        }
+        
+        /**
+         * Reuses the results of earlier searches for the files which haven't
+         * changed since, and remembers the results of searching the others.  Null,
+         * the default, searches every file.
+         */
+        public Options setCache(ResultCache c){
+            cache = c;
+            return this;
+        }
+        
+        /**
+         * Stops searching each file after this many results, like grep -m, so a
+         * maximum of 1 finds which files match while reading as little of them
+         * as possible.  Files are searched to the end by default.
+         */
+        public Options setMaxCount(int max){
+            if(max < 1)
+                throw new GrepException("Invalid max count, must be positive.");
+            maxCount = max;
+            return this;
+        }
+        
+        /**
+         * Ends a search once it has found this many matches in all, finishing
+         * promptly rather than waiting for the files being searched, and marks it
+         * {@link Search#isTruncated() truncated}.  Unlimited by default.
+         */
+        public Options setMaxMatches(int max){
+            if(max < 1)
+                throw new GrepException("Invalid max matches, must be positive.");
+            maxMatches = max;
+            return this;
+        }
+        
+        /**
+         * Ends a search once it has found matches in this many files, like
+         * {@link #setMaxMatches}.  Unlimited by default.
+         */
+        public Options setMaxFiles(int max){
+            if(max < 1)
+                throw new GrepException("Invalid max files, must be positive.");
+            maxFiles = max;
+            return this;
+        }
+        
+        /**
+         * Sets the engine which decides whether lines match, {@link Engine#AUTOMATON}
+         * by default.
+         */
+        public Options setEngine(Engine e){
+            if(e == null)
+                throw new GrepException("Invalid engine, must not be null.");
+            engine = e;
+            return this;
+        }
+        
+        /**
+         * Gives up matching a line with java.util.regex after this many
+         * milliseconds, so a pattern which backtracks badly on one huge line
+         * can't stall the search; the line is reported as a
+         * {@link GrepResult#isTimedOut() timed out} result instead, and the file
+         * isn't cached.  Lines matched by the automaton or as literals take
+         * linear time and aren't limited.  Unlimited by default.
+         */
+        public Options setLineTimeout(int millis){
+            if(millis < 1)
+                throw new GrepException("Invalid line timeout, must be positive.");
+            lineTimeout = TimeUnit.MILLISECONDS.toNanos(millis);
+            return this;
+        }
+        
+        /**
+         * With a parallelism above 1, splits files larger than this many bytes
+         * into pieces of about this size, starting at line boundaries, and
+         * searches the pieces in parallel, so one huge file is searched as fast
+         * as many small ones.  Results, line numbers and context are the same as
+         * a sequential search's.  Files are never split by default, nor when
+         * reading ahead with {@link #setReaders}, whose matching threads already
+         * search files in parallel.
+         */
+        public Options setSplitSize(long bytes){
+            if(bytes < 1)
+                throw new GrepException("Invalid split size, must be positive.");
+            splitSize = bytes;
+            return this;
+        }
+        
+        /**
+         * Reads files ahead of the threads matching them, on this many threads of
+         * their own, with a separate thread listing directories, so waiting on
+         * slow or networked disks overlaps with matching.  Small files are read
+         * whole and handed to the matching threads through a bounded queue.  0,
+         * the default, reads each file on the thread which matches it.
+         * @see SearchPipeline
+         */
+        public Options setReaders(int threads){
+            if(threads < 0)
+                throw new GrepException("Invalid readers, must be non-negative.");
+            readers = threads;
+            return this;
+        }
+    }
+    
+    /**
+     * How lines are matched against patterns which aren't just literals.
+     */
+    public enum Engine {
+        /**
+         * A lazily built DFA, which takes time linear in the length of each line
+         * for any pattern it supports, falling back to java.util.regex for the
+         * rest, such as patterns with back references or lookaround.
+         */
+        AUTOMATON,
+        /** java.util.regex, whose backtracking can take exponential time on some patterns. */
+        JAVA
+    }
+    
+    /**
+     * How to search files that look binary, because the first block of the file
+     * contains a NUL byte or is not validly encoded.
+     */
+    public enum BinaryFiles {
+        /** Don't search binary files. */
+        SKIP,
+        /** Search binary files only for whether they match, without reporting lines. */
+        REPORT,
+        /** Search binary files like any other file. */
+        TEXT
+    }
+    
+    /**
+     * A handle on one search, which can be cancelled, monitored and waited for
+     * independently of any other search.  Searches check whether they were
+     * cancelled before each file and every few thousand lines, rather than on
+     * every line, so a search stops shortly after it is cancelled.
+     */
+    public static class Search {
+        private final GrepListener listener;
+        final CountListener counter;
+        private final CountDownLatch done = new CountDownLatch(1);
+        final SearchStats stats = new SearchStats();
+        private volatile boolean cancelled = false;
+        private volatile boolean truncated = false;
+        private volatile Throwable failure = null;
+        // matches and files with matches still allowed, shared by every worker
+        private final AtomicInteger matchesLeft = new AtomicInteger(Integer.MAX_VALUE);
+        private final AtomicInteger filesLeft = new AtomicInteger(Integer.MAX_VALUE);
+        
+        Search(GrepListener l){
+            listener = l;
+            counter = null;
+        }
+        
+        Search(CountListener c){
+            listener = null;
+            counter = c;
+        }
+        
+        /**
+         * Stops the search.  Files already searched have been passed to the
+         * listener, and no more will be.
+         */
+        public void cancel(){
+            cancelled = true;
+        }
+        
+        public boolean isCancelled(){
+            return cancelled;
+        }
+        
+        /**
+         * Returns true if the search ended early because it reached the most
+         * matches or files the options allow, so some matches were not reported.
+         */
+        public boolean isTruncated(){
+            return truncated;
+        }
+        
+        void setLimits(Options opts){
+            matchesLeft.set(opts.maxMatches);
+            filesLeft.set(opts.maxFiles);
+        }
+        
+        /**
+         * Takes one match from the limits, and a file too if it's the file's first,
+         * returning false and truncating the search once none are left.  Searches
+         * only ever take one at a time, and stop when refused, so the counts
+         * can't wrap around.
+         */
+        boolean admit(boolean firstInFile){
+            if((firstInFile && filesLeft.getAndDecrement() <= 0) || matchesLeft.getAndDecrement() <= 0){
+                truncated = true;
+                return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Returns true once the search has finished, was cancelled and stopped,
+         * or failed.
+         */
+        public boolean isDone(){
+            return done.getCount() == 0;
+        }
+        
+        public int getFilesSearched(){
+            return stats.getFilesSearched();
+        }
+        
+        public int getFilesMatched(){
+            return stats.getFilesMatched();
+        }
+        
+        public int getMatchCount(){
+            return stats.getMatches();
+        }
+        
+        /**
+         * Returns the statistics of the search, which are updated as it runs.
+         */
+        public SearchStats getStats(){
+            return stats;
+        }
+        
+        /**
+         * Waits for the search to finish.
+         * @throws GrepException if the search failed
+         */
+        public void await() throws InterruptedException {
+            done.await();
+            checkFailure();
+        }
+        
+        /**
+         * Waits up to the given time for the search to finish.
+         * @return true if the search finished, false if the time ran out
+         * @throws GrepException if the search failed
+         */
+        public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+            if(!done.await(timeout,unit))
+                return false;
+            checkFailure();
+            return true;
+        }
+        
+        private void checkFailure(){
+            if(failure != null)
+                throw new GrepException("Search failed.", failure);
+        }
+        
+        // files finished after the search was cancelled, or after it ended, are dropped
+        void searched(File file, ArrayList<GrepResult> res){
+            if(res.size() > 0 && !cancelled && !isDone())
+                listener.matched(file,res);
+        }
+        
+        void counted(File file, int count){
+            if(count > 0 && !cancelled && !isDone())
+                counter.counted(file,count);
+        }
+        
+        void finish(Throwable e){
+            failure = e;
+            done.countDown();
+        }
+    }
+    
+    /**
+     * Receives the results of a search one file at a time, as they are found.
+     */
+    public interface GrepListener {
+        /**
+         * Called once for each file containing at least one match.
+         * @param file the file searched
+         * @param results the matches in the file, in line order
+         */
+        void matched(File file, ArrayList<GrepResult> results);
+    }
+    
+    /**
+     * Receives the number of results in each file of a search which only counts
+     * them, as they are found.
+     */
+    public interface CountListener {
+        /**
+         * Called once for each file containing at least one match.
+         * @param file the file searched
+         * @param count the number of matches in the file
+         */
+        void counted(File file, int count);
+    }
+    
+    /**
+     * Collects every file's results into a single map.
+     */
+    private static class ResultCollector implements GrepListener {
+        final HashMap<File,ArrayList<GrepResult>> results = new HashMap<>();
+        
+        @Override
+        public synchronized void matched(File file, ArrayList<GrepResult> res) {
+            results.put(file,res);
+        }
+    }
+    
+    /**
+     * Searches a single file, or lists a directory and forks a task for each of
+     * its entries.  Every task passes its matches directly to the one shared
+     * listener, rather than building and merging a map per directory.
+     */
+    private static class GrepTask extends RecursiveAction {
+        private static final long serialVersionUID = -3518393245069517212L;
+        
+        private final File file;
+        private final List<File> files;
+        private final Pattern pattern;
+        private final FileFilter ff;
+        private final boolean recursive;
+        private final Options opts;
+        private final Search search;
+        
+        GrepTask(File f, Pattern pat, FileFilter filter, boolean rec, Options o, Search s){
+            file = f;
+            files = null;
+            pattern = pat;
+            ff = filter;
+            recursive = rec;
+            opts = o;
+            search = s;
+        }
+        
+        /**
+         * Searches exactly the given files, such as the candidates found by an index.
+         */
+        GrepTask(List<File> fs, Pattern pat, Options o, Search s){
+            file = null;
+            files = fs;
+            pattern = pat;
+            ff = null;
+            recursive = false;
+            opts = o;
+            search = s;
+        }
+        
+        @Override
+        protected void compute() {
+            if(files != null){
+                ArrayList<GrepTask> tasks = new ArrayList<>(files.size());
+                for(File f : files){
+                    tasks.add(new GrepTask(f,pattern,ff,recursive,opts,search));
+                }
+                invokeAll(tasks);
+                return;
+            }
+            if(!file.isDirectory()){
+                searchFile(file,pattern,opts,search);
+                return;
+            }
+            File[] list = list(file,ff,search);
+            if(list == null) // just in case there's an IO error
+                return;
+            ArrayList<GrepTask> tasks = new ArrayList<>(list.length);
+            for(File f : list){
+                if(recursive || !f.isDirectory())
+                    tasks.add(new GrepTask(f,pattern,ff,recursive,opts,search));
+            }
+            invokeAll(tasks);
+        }
+    }
+    
+    /**
+     * Replaces the matches in one file, keeping any IOException for the caller.
+     */
+    private static class ReplaceTask extends RecursiveAction {
+        private static final long serialVersionUID = 5302245183371469812L;
+        
+        private final File file;
+        private final List<GrepResult> results;
+        private final String replace;
+        IOException failure = null;
+        
+        ReplaceTask(File f, List<GrepResult> res, String rep){
+            file = f;
+            results = res;
+            replace = rep;
+        }
+        
+        @Override
+        protected void compute() {
+            try {
+                replaceFile(file,results,replace);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+    
+    /**
+     * Where the search of a file that's being appended to left off: the offset
+     * and number of the complete lines searched so far, and the offsets of the
+     * last few, which are the context of the lines that follow.
+     */
+    static class FileTail {
+        long offset = 0;
+        int lines = 0;
+        long[] recent = new long[0];
+        boolean binary = false;
+    }
+    
+    /**
+     * A single matching line.  Results found by a search don't hold their context
+     * lines, only the file offsets where their context begins and ends, and load
+     * the lines from the file when they're asked for.
+     */
     public static class GrepResult {
+        // how long matching a line again may take, since it may have been found by the automaton in far less
+        static final long REMATCH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+        
         int lineNum;
         String line;
-        Matcher matches;
-        LinkedList<String> before;
-        LinkedList<String> after;
+        Pattern pattern;
+        // eagerly provided context
+        List<String> before;
+        List<String> after;
+        // lazily loaded context, the offsets of the first line before the match, of the match, and of the line after
+        FileContext source;
+        long beforeStart;
+        long lineStart;
+        long afterStart;
+        boolean binary;
+        boolean timedOut;
+        // which of the patterns in the search pattern matched, found when first needed
+        String matched;
+        boolean matchedFound;
         
         public GrepResult(int ln, String lin, Matcher mat, List<String> lb, List<String> af){
             lineNum = ln;
             line = lin;
-            matches = mat;
+            pattern = mat.pattern();
             before = new LinkedList<>(lb);
             after = new LinkedList<>(af);
         }
         
+        GrepResult(int ln, String lin, Pattern pat, FileContext src, long bef, long start, long aft){
+            lineNum = ln;
+            line = lin;
+            pattern = pat;
+            source = src;
+            beforeStart = bef;
+            lineStart = start;
+            afterStart = aft;
+        }
+        
+        /**
+         * The single result of a binary file which matched, without any line.
+         */
+        static GrepResult binaryMatch(Pattern pat){
+            GrepResult res = new GrepResult(0, "Binary file matches", pat, null, 0, 0, 0);
+            res.before = new LinkedList<>();
+            res.after = new LinkedList<>();
+            res.binary = true;
+            return res;
+        }
+        
+        /**
+         * Returns true if this result only reports that a binary file matched, in
+         * which case it has no line number or context.
+         */
+        public boolean isBinary(){
+            return binary;
+        }
+        
+        /**
+         * Returns true if this result is a line which took too long to match, so
+         * may or may not match; see {@link Options#setLineTimeout}.
+         */
+        public boolean isTimedOut(){
+            return timedOut;
+        }
+        
+        GrepResult setTimedOut(){
+            timedOut = true;
+            return this;
+        }
+        
         public int getLineNumber(){
             return lineNum;
         }
@@ -265,13 +1641,81 @@ public class Grep {
             return line;
         }
         
+        /**
+         * Returns a new Matcher of the search pattern over the matched line.
+         */
         public Matcher getMatcher(){
-            return matches;
+            return pattern.matcher(line);
+        }
+        
+        /**
+         * Returns a new Matcher over the matched line which throws
+         * LineMatcher.TimedOut once it's spent REMATCH_NANOS matching.
+         */
+        Matcher boundedMatcher(){
+            return pattern.matcher(LineMatcher.bounded(line,System.nanoTime()+REMATCH_NANOS));
+        }
+        
+        /**
+         * Returns which pattern this result's line matched, when the search was
+         * for a list of patterns such as one from {@link Grep#anyOf}: the string
+         * matched first on the line if they were literal strings, or the first
+         * pattern as written which matches the line otherwise.  Returns null for
+         * a binary file's result or a timed out line, or if the search pattern is
+         * not several literal strings or (?:...) groups separated by |.
+         */
+        public String getMatchedPattern(){
+            if(!matchedFound)
+                setMatchedPattern(binary || timedOut ? null : findMatchedPattern());
+            return matched;
+        }
+        
+        void setMatchedPattern(String pat){
+            matched = pat;
+            matchedFound = true;
+        }
+        
+        private String findMatchedPattern(){
+            List<String> alternatives = RegexLiterals.alternatives(pattern);
+            if(alternatives != null && alternatives.size() > 1){
+                Matcher m = boundedMatcher();
+                try {
+                    if(!m.find())
+                        return null;
+                } catch (LineMatcher.TimedOut e) {
+                    return null;
+                }
+                boolean caseInsense = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+                for(String alt : alternatives){
+                    if(caseInsense ? alt.equalsIgnoreCase(m.group()) : alt.equals(m.group()))
+                        return alt;
+                }
+                return null;
+            }
+            List<String> branches = RegexLiterals.branches(pattern);
+            if(branches == null || branches.size() < 2)
+                return null;
+            CharSequence bounded = LineMatcher.bounded(line,System.nanoTime()+REMATCH_NANOS);
+            try {
+                for(String branch : branches){
+                    if(Pattern.compile(branch,pattern.flags()).matcher(bounded).find())
+                        return branch;
+                }
+            } catch (LineMatcher.TimedOut e) {
+                // as if none matched
+            }
+            return null;
         }
         
         public List<String> getLinesBefore(int count){
             if(count < 0)
                 throw new GrepException("Invalid count, must be non-negative.");
+            if(source != null){
+                if(count == 0)
+                    return new LinkedList<>();
+                List<String> lines = source.lines(beforeStart, lineStart, MAX_LINES);
+                return lines.subList(Math.max(0, lines.size()-count), lines.size());
+            }
             if(count >= before.size())
                 return new LinkedList<>(before);
             return before.subList(before.size()-count, before.size());
@@ -280,6 +1724,11 @@ public class Grep {
         public List<String> getLinesAfter(int count){
             if(count < 0)
                 throw new GrepException("Invalid count, must be non-negative.");
+            if(source != null){
+                if(count == 0)
+                    return new LinkedList<>();
+                return source.lines(afterStart, Long.MAX_VALUE, Math.min(count, MAX_LINES));
+            }
             if(count >= after.size())
                 return new LinkedList<>(after);
             return after.subList(0, count);
@@ -287,6 +1736,8 @@ public class Grep {
         
         @Override
         public String toString(){
+            if(binary)
+                return line;
             return "Match on line "+lineNum+": "+line;
         }
     }
@@ -310,72 +1761,4 @@ public class Grep {
             super(err);
         }
     }
-    
-    private static class ExtensionFilter implements FileFilter {
-        String[] exts;
-        boolean all = false;
-        public ExtensionFilter(String[] exs){
-            exts = new String[exs.length];
-            for(int i = 0; i < exs.length; i++){
-                exs[i] = exs[i].replaceAll("\\.", "").trim();
-                if(exs[i].equals("*")){
-                    all = true;
-                    return;
-                }
-                exts[i] = "."+exs[i];
-            }
-        }
-        @Override
-        public boolean accept(File file) {
-            if(all || file.isDirectory())
-                return true;
-            for(String e : exts){
-                if(file.getAbsolutePath().endsWith(e))
-                    return true;
-            }
-            return false;
-        }
-    }
-    
-    private static class FileFormat {
-        public enum FileType { WINDOWS, UNIX, MAC, UNKNOWN }
-
-        private static final char CR = '\r';
-        private static final char LF = '\n';
-        
-        public static String getEOL(File f) throws IOException {
-            switch (discover(f)){
-            case WINDOWS:
-                return "\r\n";
-            case MAC:
-                return "\r";
-            case UNIX:
-            case UNKNOWN: // treat as unix
-            default:
-                return "\n";
-            }
-        }
-
-        public static FileType discover(File f) throws IOException {    
-
-            try (Reader reader = new BufferedReader(new FileReader(f))) {
-                return discover(reader);
-            }
-        }
-
-        private static FileType discover(Reader reader) throws IOException {
-            int c;
-            while ((c = reader.read()) != -1) {
-                switch(c) {        
-                case LF: return FileType.UNIX;
-                case CR: {
-                    if (reader.read() == LF) return FileType.WINDOWS;
-                    return FileType.MAC;
-                }
-                default: continue;
-                }
-            }
-            return FileType.UNKNOWN;
-        }
-    }
 }
@@ -18,8 +18,11 @@
  */
 package grep;
 
+import grep.Grep.BinaryFiles;
+import grep.Grep.GrepListener;
 import grep.Grep.GrepResult;
-import grep.Grep.GrepStopException;
+import grep.Grep.GrepException;
+import grep.Grep.Search;
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
@@ -34,20 +37,24 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.Set;
-import java.util.regex.Matcher;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
 
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JCheckBox;
-import javax.swing.JEditorPane;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -61,7 +68,10 @@ import javax.swing.JScrollPane;
 import javax.swing.JSeparator;
 import javax.swing.JSpinner;
 import javax.swing.JTable;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
 import javax.swing.SpinnerNumberModel;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
@@ -111,10 +121,19 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
     File grepPath;
     private Properties props;
     HashMap<File,ArrayList<GrepResult>> result = null;
+    int matchCount = 0;
+    volatile boolean searchStopped = false;
+    private Search search = null;
+    // results of past searches, saved beside the state file
+    private ResultCache cache;
+    private Watcher watcher = null;
+    // incremented whenever watching stops, so updates from an old watcher are ignored
+    private int watchGeneration = 0;
 
     private JMenuItem openMItem;
     private JMenuItem saveMItem;
     private JMenuItem replaceMItem;
+    private JMenuItem listMItem;
     private JMenuItem charHelpMItem;
     private JPanel charHelpPanel;
     private JMenuItem quantHelpMItem;
@@ -130,13 +149,30 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
     JButton stopButton;
     JTable fileTable;
     FileListModel fileTableModel;
-    JEditorPane resultPane;
+    ResultView resultView;
     JLabel resultsText;
+    JLabel statsText;
     private JCheckBox recurseBox;
     private JCheckBox caseBox;
     private JCheckBox regexBox;
+    private JCheckBox indexBox;
+    private JCheckBox saveCacheBox;
+    private JCheckBox ignoreBox;
+    private JCheckBox watchBox;
+    // labels for each of the BinaryFiles modes, in order
+    private static final String[] BINARY_LABELS = {"Skip", "Report Match", "Search As Text"};
+    // the most matches a search keeps, so an overly broad pattern can't exhaust memory
+    private static final int MAX_MATCHES = 100000;
+    // the longest java.util.regex may spend on one line, so a huge minified line can't stall the search
+    private static final int LINE_TIMEOUT_MILLIS = 1000;
+    // files larger than this are searched in parallel pieces
+    private static final long SPLIT_SIZE = 64*1024*1024;
+    // threads reading files ahead of the matching threads, to overlap slow disks with matching
+    private static final int READERS = 8;
+    private JComboBox<String> binaryBox;
     JProgressBar progressBar;
     private JSpinner contextSpinner;
+    private JSpinner maxCountSpinner;
 
     public JGrep(boolean localState){
         super("jGrep");
@@ -147,6 +183,18 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         }
         initComponents();
         loadProperties(stateFile);
+        cache = new ResultCache();
+        if(saveCacheBox.isSelected()){ // the cache holds matched lines, so is only kept on disk if asked
+            try {
+                cache = ResultCache.load(getCacheFile(), ResultCache.DEFAULT_CAPACITY);
+            } catch (IOException e) {
+                e.printStackTrace(System.err);
+            }
+        }
+    }
+    
+    private File getCacheFile(){
+        return new File(stateFile.getAbsoluteFile().getParentFile(), ".jGrep.cache");
     }
     
     private static File getUserDir(){
@@ -172,9 +220,19 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         patternField.setText(props.getProperty("pattern"));
         extensionsField.setText(props.getProperty("extensions"));
         contextSpinner.setValue(Integer.parseInt(props.getProperty("context")));
+        if(props.getProperty("maxcount") != null)
+            maxCountSpinner.setValue(Integer.parseInt(props.getProperty("maxcount")));
         recurseBox.setSelected(props.getProperty("recurse").equals("true"));
         caseBox.setSelected(props.getProperty("case").equals("true"));
         regexBox.setSelected(props.getProperty("regex").equals("true"));
+        indexBox.setSelected("true".equals(props.getProperty("index")));
+        saveCacheBox.setSelected("true".equals(props.getProperty("savecache")));
+        ignoreBox.setSelected("true".equals(props.getProperty("gitignore")));
+        watchBox.setSelected("true".equals(props.getProperty("watch")));
+        for(BinaryFiles mode : BinaryFiles.values()){
+            if(mode.name().equals(props.getProperty("binary")))
+                binaryBox.setSelectedIndex(mode.ordinal());
+        }
         
         File path = new File(fileField.getText());
         if(path.exists()){
@@ -185,15 +243,21 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         return true;
     }
     
-    // data that is saved: path, pattern, extensions, context, recurse, case, regex
+    // data that is saved: path, pattern, extensions, context, maxcount, recurse, case, regex, index, savecache, binary, gitignore, watch
     boolean saveProperties(File f, String desc){
         props.setProperty("path", fileField.getText());
         props.setProperty("pattern", patternField.getText());
         props.setProperty("extensions", extensionsField.getText());
         props.setProperty("context", contextSpinner.getValue().toString());
+        props.setProperty("maxcount", maxCountSpinner.getValue().toString());
         props.setProperty("recurse", recurseBox.isSelected()+"");
         props.setProperty("case", caseBox.isSelected()+"");
         props.setProperty("regex", regexBox.isSelected()+"");
+        props.setProperty("index", indexBox.isSelected()+"");
+        props.setProperty("savecache", saveCacheBox.isSelected()+"");
+        props.setProperty("gitignore", ignoreBox.isSelected()+"");
+        props.setProperty("watch", watchBox.isSelected()+"");
+        props.setProperty("binary", BinaryFiles.values()[binaryBox.getSelectedIndex()].name());
         try (FileOutputStream out = new FileOutputStream(f)) {
             props.store(out, "JGrep Configuration File: "+desc);
             return true;
@@ -203,6 +267,7 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
     }
 
     private void grep(){
+        stopWatching();
         searchButton.setVisible(false);
         stopButton.setVisible(true);
         progressBar.setVisible(true);
@@ -212,10 +277,13 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         String patternStr = patternField.getText();
         final Pattern pattern;
         String extsStr = extensionsField.getText().replaceAll("\\s+", "").replace("\\.", "");
-        final String[] exts = extsStr.split(",");
+        final PathFilter filter = PathFilter.forExtensions(grepPath, extsStr.split(","));
+        if(ignoreBox.isSelected())
+            filter.useIgnoreFiles(".gitignore");
         final boolean recurse = recurseBox.isSelected();
         boolean caseInsense = caseBox.isSelected();
         boolean regex = regexBox.isSelected();
+        File indexDir = null;
 
         try {
             // error checking
@@ -238,6 +306,14 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
                 warning("Invalid Pattern", "Pattern has the following error: "+e.getDescription());
                 throw new Exception();
         }
+            if(indexBox.isSelected() && grepPath.isDirectory()){
+                try {
+                    indexDir = TrigramIndex.defaultDir(new File(getUserDir(),".jGrep/index"), grepPath);
+                } catch (IOException e){
+                    warning("Invalid Path", "Cannot index "+grepPath.getAbsolutePath()+": "+e.getMessage());
+                    throw new Exception();
+                }
+            }
         } catch (Exception e){
             // restore to no-search state
             searchButton.setVisible(true);
@@ -247,16 +323,45 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         }
         
         // grep
+        result = new HashMap<>();
+        matchCount = 0;
+        searchStopped = false;
+        resultView.clear();
+        fileTableModel.clear(grepPath.getAbsolutePath());
+        resultsText.setText("Searching...");
+        statsText.setText(" ");
+        statsText.setToolTipText(null);
+        final ResultBatcher batcher = new ResultBatcher();
+        final Grep.Options opts = new Grep.Options().setMaxMatches(MAX_MATCHES).setLineTimeout(LINE_TIMEOUT_MILLIS)
+                .setSplitSize(SPLIT_SIZE).setReaders(READERS)
+                .setParallelism(Runtime.getRuntime().availableProcessors()).setIndex(indexDir).setCache(cache)
+                .setBinaryFiles(BinaryFiles.values()[binaryBox.getSelectedIndex()]);
+        int maxCount = (Integer)maxCountSpinner.getValue();
+        if(maxCount > 0)
+            opts.setMaxCount(maxCount);
+        final Search running = Grep.start(grepPath, pattern, filter, recurse, opts, batcher);
+        search = running;
+        batcher.owner = running;
         new Thread(new Runnable() {
             @Override
             public void run() {
                 try {
-                result = Grep.grep(grepPath, pattern, exts, recurse);
-                } catch (GrepStopException e){
-                    Grep.setGrepLock(false);
-                    result = null;
+                    running.await();
+                } catch (InterruptedException | GrepException e){
+                    e.printStackTrace(System.err);
                 }
-                SwingUtilities.invokeLater(updateResults);
+                SwingUtilities.invokeLater(new Runnable() {
+                    @Override
+                    public void run() {
+                        if(search != running) // another search has started since
+                            return;
+                        searchStopped = running.isCancelled();
+                        batcher.flush();
+                        if(watchBox.isSelected() && !searchStopped && !running.isTruncated())
+                            startWatching(pattern, filter, recurse, opts);
+                        updateResults.run();
+                    }
+                });
             }
         }).start();
     }
@@ -264,60 +369,124 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
     Runnable updateResults = new Runnable(){
         @Override
         public void run() {
-            if(result != null){
-                resultPane.setText("");
-                String absPat = grepPath.getAbsolutePath();
-                fileTableModel.setFiles(result.keySet(),absPat);
-                if(result.size() == 0){
-                    resultsText.setText("No matches found");
-                } else {
-                    int matchCount = 0;
-                    for(ArrayList<GrepResult> al : result.values()){
-                        matchCount += al.size();
-                    }
-                    fileTable.changeSelection(0, 0, false, false);
-                    resultsText.setText(matchCount+" match"+(matchCount == 1 ? "" : "es")+" in "+result.size()+" file"+(result.size() == 1 ? "" : "s"));
-                }
+            if(result.size() == 0){
+                resultsText.setText(searchStopped ? "Search stopped, no matches found" : "No matches found");
+            } else {
+                resultsText.setText((searchStopped ? "Search stopped, " : "")+resultSummary());
             }
+            if(search.isTruncated())
+                resultsText.setText("Stopped at "+MAX_MATCHES+" matches, narrow the search to see the rest: "+resultsText.getText());
+            long timedOut = search.getStats().getLinesTimedOut();
+            if(timedOut > 0)
+                resultsText.setText(resultsText.getText()+", "+timedOut+" lines timed out");
+            if(watcher != null)
+                resultsText.setText(resultsText.getText()+", watching for changes");
+            statsText.setText("("+search.getStats().getSummary()+")");
+            statsText.setToolTipText("<html>"+htmlEscape(search.getStats().toString()).replace("\n", "<br>")+"</html>");
             searchButton.setVisible(true);
             stopButton.setVisible(false);
             progressBar.setVisible(false);
         }
     };
-
-    protected String grepToHTML(File file, int context) {
-        if(result == null){
-            return "";
-        }
-        ArrayList<GrepResult> r = result.get(file);
-        StringBuilder out = new StringBuilder();
-        out.append(
-                "<!DOCTYPE HTML PUBLIC \"-//W3C//DTD HTML 4.01 Transitional//EN\" \"http://www.w3.org/TR/html4/loose.dtd\">" +
-                "<html><head><style type=\"text/css\">" +
-                "body { font-family: sans-serif; }" +
-                ".title { font-size: 1.2em; }" +
-                ".matchBlock { padding-top: 5px; }" +
-                ".text { font-family: monospace; }" +
-                ".match { color: #ff0000; }" +
-                "</style>" +
-                "<title>"+file.getAbsolutePath()+"</title>" +
-                "</head><body>"
-                );
-        out.append("<div class=\"title\">"+file.getAbsolutePath()+"</div>");
-        out.append("<div class=\"subtitle\">"+r.size()+" matches in file.</div>");
-        for(GrepResult g : r){
-            out.append("<div class=\"matchBlock\"><em>Match on line "+g.getLineNumber()+"</em><br><div class=\"text\">");
-            List<String> cont = g.getLinesBefore(context);
-            for(String ln : cont)
-                out.append(htmlEscape(ln)+"<br>");
-            out.append("<strong>"+highlightHtmlEscape(g.getLine(),g.getMatcher(),"span class=\"match\"")+"</strong>");
-            cont = g.getLinesAfter(context);
-            for(String ln : cont)
-                out.append("<br>"+htmlEscape(ln));
-            out.append("</div></div>");
-        }
-        out.append("</body></html>");
-        return out.toString();
+    
+    private void startWatching(Pattern pattern, PathFilter filter, boolean recurse, Grep.Options opts){
+        final int generation = watchGeneration;
+        try {
+            watcher = Watcher.start(grepPath, pattern, filter, recurse, opts, new Watcher.Listener() {
+                @Override
+                public void updated(final File file, final ArrayList<GrepResult> results) {
+                    SwingUtilities.invokeLater(new Runnable() {
+                        @Override
+                        public void run() {
+                            if(generation == watchGeneration)
+                                watched(file, results);
+                        }
+                    });
+                }
+            });
+        } catch (IOException e) {
+            warning("Cannot Watch", "Cannot watch "+grepPath.getAbsolutePath()+" for changes: "+e.getMessage());
+        }
+    }
+    
+    private void stopWatching(){
+        watchGeneration++;
+        if(watcher == null)
+            return;
+        try {
+            watcher.close();
+        } catch (IOException e) {
+            e.printStackTrace(System.err);
+        }
+        watcher = null;
+    }
+    
+    /**
+     * Replaces the results of a file that changed while watching.
+     */
+    private void watched(File file, ArrayList<GrepResult> results){
+        ArrayList<GrepResult> old = results.isEmpty() ? result.remove(file) : result.put(file, results);
+        if(old == null && results.isEmpty())
+            return;
+        matchCount += results.size()-(old == null ? 0 : old.size());
+        fileTableModel.update(file);
+        if(file.equals(fileTableModel.getFileAt(fileTable.getSelectedRow())))
+            resultView.refresh(file, results);
+        if(fileTable.getSelectedRow() == -1 && fileTableModel.getRowCount() > 0)
+            fileTable.changeSelection(0, 0, false, false);
+        resultsText.setText((result.isEmpty() ? "No matches found" : resultSummary())+", watching for changes");
+    }
+    
+    private String resultSummary(){
+        return matchCount+" match"+(matchCount == 1 ? "" : "es")+" in "+result.size()+" file"+(result.size() == 1 ? "" : "s");
+    }
+    
+    /**
+     * Hands the files matched by the search thread over to the EDT in batches.
+     * Only one update is queued at a time no matter how quickly files are found,
+     * and it adds every file found since the last update.  Files found by a
+     * search which has since been replaced are dropped.
+     */
+    private class ResultBatcher implements GrepListener {
+        Search owner; // set on the EDT before any flush runs
+        private final ConcurrentLinkedQueue<Entry<File,ArrayList<GrepResult>>> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private final Runnable flusher = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        
+        @Override
+        public void matched(File file, ArrayList<GrepResult> results) {
+            pending.add(new SimpleImmutableEntry<>(file, results));
+            if(scheduled.compareAndSet(false, true))
+                SwingUtilities.invokeLater(flusher);
+        }
+        
+        // must be called on the EDT
+        void flush(){
+            scheduled.set(false);
+            if(search != owner){
+                pending.clear();
+                return;
+            }
+            ArrayList<File> files = new ArrayList<>();
+            Entry<File,ArrayList<GrepResult>> e;
+            while((e = pending.poll()) != null){
+                result.put(e.getKey(), e.getValue());
+                matchCount += e.getValue().size();
+                files.add(e.getKey());
+            }
+            if(files.isEmpty())
+                return;
+            fileTableModel.addFiles(files);
+            if(fileTable.getSelectedRow() == -1)
+                fileTable.changeSelection(0, 0, false, false);
+            if(!searchButton.isVisible()) // still searching
+                resultsText.setText(resultSummary()+" so far, "+search.getStats().getFilesVisited()+" files searched...");
+        }
     }
 
     private void initComponents() {
@@ -329,6 +498,14 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
                 dispose();
                 
                 saveProperties(stateFile,"State on close");
+                try {
+                    if(saveCacheBox.isSelected())
+                        cache.save(getCacheFile());
+                    else // don't leave matched lines on disk once saving is turned off
+                        Files.deleteIfExists(getCacheFile().toPath());
+                } catch (IOException ex) {
+                    ex.printStackTrace(System.err);
+                }
                 System.exit(0);
             }
         });
@@ -355,6 +532,10 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         
         optMenu.add(new JSeparator());
         
+        listMItem = new JMenuItem("Search for List...");
+        listMItem.addActionListener(this);
+        optMenu.add(listMItem);
+        
         replaceMItem = new JMenuItem("Replace Matches");
         replaceMItem.addActionListener(this);
         optMenu.add(replaceMItem);
@@ -434,18 +615,20 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         fileTable.setSelectionMode(javax.swing.ListSelectionModel.SINGLE_SELECTION);
         fileTable.getSelectionModel().addListSelectionListener(this);
         fileTable.setAutoCreateRowSorter(true);
+        fileTable.getRowSorter().setSortKeys(Collections.singletonList(new RowSorter.SortKey(0, SortOrder.ASCENDING)));
+        fileTable.getColumnModel().getColumn(1).setPreferredWidth(25);
         JScrollPane fileScroll = new JScrollPane(fileTable);
         fileScroll.setPreferredSize(new Dimension(230,100));
         content.add(fileScroll,BorderLayout.WEST);
         
-        resultPane = new JEditorPane("text/html","");
-        resultPane.setEditable(false);
-        JScrollPane resultScroll = new JScrollPane(resultPane);
-        content.add(resultScroll,BorderLayout.CENTER);
+        resultView = new ResultView();
+        content.add(resultView,BorderLayout.CENTER);
         
         // south panel left
         resultsText = new JLabel(" ");
         sPanelL.add(resultsText);
+        statsText = new JLabel(" ");
+        sPanelL.add(statsText);
         
         // south panel right
         progressBar = new JProgressBar();
@@ -463,6 +646,14 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         
         sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
         
+        sPanelR.add(new JLabel("Max Per File:"));
+        
+        maxCountSpinner = new JSpinner(new SpinnerNumberModel(0,0,Integer.MAX_VALUE,1));
+        maxCountSpinner.setToolTipText("Stop searching each file after this many matches, 0 for no limit; 1 quickly finds which files match");
+        sPanelR.add(maxCountSpinner);
+        
+        sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
+        
         sPanelR.add(new JLabel("Recurse Directories:"));
         
         recurseBox = new JCheckBox();
@@ -471,6 +662,22 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         
         sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
         
+        sPanelR.add(new JLabel("Use .gitignore:"));
+        
+        ignoreBox = new JCheckBox();
+        sPanelR.add(ignoreBox);
+        
+        sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
+        
+        sPanelR.add(new JLabel("Watch:"));
+        
+        watchBox = new JCheckBox();
+        watchBox.setToolTipText("Keep the results up to date as files change, from the next search");
+        watchBox.addActionListener(this);
+        sPanelR.add(watchBox);
+        
+        sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
+        
         sPanelR.add(new JLabel("Case Insensitive:"));
         
         caseBox = new JCheckBox();
@@ -484,6 +691,29 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         regexBox = new JCheckBox();
         sPanelR.add(regexBox);
         
+        sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
+        
+        sPanelR.add(new JLabel("Use Index:"));
+        
+        indexBox = new JCheckBox();
+        sPanelR.add(indexBox);
+        
+        sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
+        
+        sPanelR.add(new JLabel("Save Cache:"));
+        
+        saveCacheBox = new JCheckBox();
+        saveCacheBox.setToolTipText("Keep the results of searches, including the matched lines, on disk between sessions");
+        sPanelR.add(saveCacheBox);
+        
+        sPanelR.add(new TSeparator(SwingConstants.VERTICAL));
+        
+        sPanelR.add(new JLabel("Binary Files:"));
+        
+        binaryBox = new JComboBox<>(BINARY_LABELS);
+        binaryBox.setSelectedIndex(BinaryFiles.REPORT.ordinal());
+        sPanelR.add(binaryBox);
+        
         // final setup
         setIconImage(new ImageIcon(getClass().getClassLoader().getResource("jGrep Logo 64.png")).getImage());
         setDefaultCloseOperation(DO_NOTHING_ON_CLOSE);
@@ -557,6 +787,8 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
                     warning("Failed to Save",
                             "The search could not be saved to that location.");
             }
+        } else if(src == listMItem){
+            searchForList();
         } else if(src == replaceMItem){
             if(result == null || result.size() == 0){
                 warning("No results found","There is no active result set to replace text on.");
@@ -572,13 +804,13 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
                     , JOptionPane.QUESTION_MESSAGE);
             if(rep != null)
                 try {
-                    Grep.replace(result, rep);
+                    Grep.replace(result, rep, Runtime.getRuntime().availableProcessors());
                 } catch(IllegalArgumentException e){
                     warning("Invalid Replace String","The string you wish to replace matches with is invalid.  Most likely, you need" +
                             "to replace any '$' mentions with '\\$'.");
                 } catch (IOException e) {
-                    warning("Replace Operation Failed","Running replace failed.  jGrep has tried to save the original state of affected files" +
-                            "in *.orig files, you may need to manually repair them.\n\nThe error reported was: "+
+                    warning("Replace Operation Failed","Running replace failed.  Each file is replaced all at once, so the files" +
+                            " which failed are unchanged and the rest were replaced.\n\nThe error reported was: "+
                             e.getClass().getName()+": "+e.getMessage());
                 }
         }
@@ -623,7 +855,12 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         else if(src == searchButton || src == patternField){
             grep();
         } else if(src == stopButton){
-            Grep.setGrepLock(true);
+            search.cancel();
+        } else if(src == watchBox){
+            if(!watchBox.isSelected() && watcher != null){
+                stopWatching();
+                updateResults.run();
+            }
         }
     }
 
@@ -645,7 +882,7 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
     public void stateChanged(ChangeEvent evt) {
         Object src = evt.getSource();
         if(src == contextSpinner){
-            buildResultPane();
+            resultView.setContext((Integer)contextSpinner.getValue());
         }
     }
     
@@ -655,9 +892,54 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
     
     private void buildResultPane(){
         File f = fileTableModel.getFileAt(fileTable.getSelectedRow());
-        resultPane.setText(grepToHTML(f,(Integer)contextSpinner.getValue()));
-        resultPane.setSelectionStart(0);
-        resultPane.setSelectionEnd(0);
+        if(result == null || f == null)
+            return;
+        resultView.setResults(f,result.get(f));
+    }
+    
+    /**
+     * Asks for a list of patterns, typed or loaded from a file one per line,
+     * and searches for all of them at once.  The pattern field is set to a
+     * regular expression matching any of them.
+     */
+    private void searchForList(){
+        final JTextArea listArea = new JTextArea(15, 40);
+        JButton loadButton = new JButton("Load File...");
+        loadButton.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                if(saveChooser.showOpenDialog(JGrep.this) != JFileChooser.APPROVE_OPTION)
+                    return;
+                try {
+                    listArea.setText(new String(Files.readAllBytes(saveChooser.getSelectedFile().toPath()), LineReader.CHARSET));
+                } catch (IOException ex) {
+                    warning("Failed to Open", "The file could not be read: "+ex.getMessage());
+                }
+            }
+        });
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JLabel("Search for any of these "+(regexBox.isSelected() ? "patterns" : "strings")+", one per line:"),
+                BorderLayout.NORTH);
+        panel.add(new JScrollPane(listArea), BorderLayout.CENTER);
+        JPanel loadPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        loadPanel.add(loadButton);
+        panel.add(loadPanel, BorderLayout.SOUTH);
+        if(JOptionPane.showConfirmDialog(this, panel, "Search for List", JOptionPane.OK_CANCEL_OPTION,
+                JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION)
+            return;
+        Pattern any;
+        try {
+            any = Grep.anyOf(Arrays.asList(listArea.getText().split("\r?\n|\r")), regexBox.isSelected() ? 0 : Pattern.LITERAL);
+        } catch (GrepException e) {
+            warning("Invalid Pattern", "Please specify at least one string to grep for.");
+            return;
+        } catch (PatternSyntaxException e) {
+            warning("Invalid Pattern", "Pattern has the following error: "+e.getDescription());
+            return;
+        }
+        patternField.setText(any.pattern());
+        regexBox.setSelected(true);
+        grep();
     }
     
     private void warning(String title, String message){
@@ -669,12 +951,32 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         private ArrayList<File> files = new ArrayList<>();
         private String rootPath = "";
 
-        public void setFiles(Set<File> f, String rp) {
-            files = new ArrayList<>(f);
+        public void clear(String rp) {
+            files = new ArrayList<>();
             rootPath = rp;
-            Collections.sort(files);
-            fireTableStructureChanged();
-            fileTable.getColumnModel().getColumn(1).setPreferredWidth(25);
+            fireTableDataChanged();
+        }
+        
+        public void addFiles(List<File> f) {
+            int first = files.size();
+            files.addAll(f);
+            fireTableRowsInserted(first, files.size()-1);
+        }
+        
+        /**
+         * Adds, removes or refreshes the row of a file whose results changed.
+         */
+        public void update(File f) {
+            int row = files.indexOf(f);
+            if(row < 0){
+                if(result.containsKey(f))
+                    addFiles(Collections.singletonList(f));
+            } else if(!result.containsKey(f)){
+                files.remove(row);
+                fireTableRowsDeleted(row, row);
+            } else {
+                fireTableRowsUpdated(row, row);
+            }
         }
         
         @Override
@@ -686,6 +988,11 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
             throw new RuntimeException("Attempted to get out of bounds column");
         }
 
+        @Override
+        public Class<?> getColumnClass(int col) {
+            return col == 1 ? Integer.class : String.class;
+        }
+
         @Override
         public Object getValueAt(int row, int col) {
             if(col == 0){
@@ -747,23 +1054,6 @@ public class JGrep extends JFrame implements ActionListener, ListSelectionListen
         return out.toString();
     }
     
-    private static String highlightHtmlEscape(String text, Matcher m, String tag){
-        m.reset();
-        StringBuilder out = new StringBuilder();
-        int nextChar = 0;
-        int space = tag.indexOf(" ");
-        String tagClose = space > -1 ? tag.substring(0,space) : tag;
-        while(m.find()){
-            out.append(htmlEscape(text.substring(nextChar,m.start())));
-            out.append("<"+tag+">");
-            out.append(htmlEscape(text.substring(m.start(),m.end())));
-            out.append("</"+tagClose+">");
-            nextChar = m.end();
-        }
-        out.append(htmlEscape(text.substring(nextChar)));
-        return out.toString();
-    }
-    
     @SuppressWarnings("unused")
     public static void main(String[] args){
         new JGrep(args.length == 0);
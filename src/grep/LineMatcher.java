@@ -0,0 +1,158 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.Engine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Decides whether a line contains a match of a pattern.  Searches only need
+ * to know whether each line matches, not where, so any engine which can
+ * answer that can search; {@link #forPattern} picks one for a pattern.
+ * Matchers hold the state of matching and are only used by one thread.
+ */
+abstract class LineMatcher {
+    // the automaton for each pattern searched, or NONE, so each is only compiled once
+    private static final Map<Pattern,Object> AUTOMATA = Collections.synchronizedMap(new WeakHashMap<Pattern,Object>());
+    private static final Object NONE = new Object();
+
+    /**
+     * Returns true if the line contains a match.
+     * @throws TimedOut if java.util.regex ran past the matcher's time budget
+     */
+    abstract boolean find(CharSequence line);
+
+    /**
+     * Returns a matcher for the pattern using the given engine.  The automaton
+     * is used whenever it supports the pattern, and java.util.regex otherwise.
+     * @param budget nanoseconds java.util.regex may spend on a line, or 0 for no
+     * limit; the automaton takes linear time, so isn't limited
+     */
+    static LineMatcher forPattern(Pattern pattern, Engine engine, long budget){
+        if(engine == Engine.AUTOMATON){
+            Object automaton = AUTOMATA.get(pattern);
+            if(automaton == null){
+                RegexAutomaton compiled = RegexAutomaton.compile(pattern);
+                automaton = compiled == null ? NONE : compiled;
+                AUTOMATA.put(pattern, automaton);
+            }
+            if(automaton != NONE)
+                return ((RegexAutomaton)automaton).matcher(pattern, budget);
+        }
+        return new Regex(pattern, budget);
+    }
+
+    /**
+     * Returns the line as java.util.regex should read it to give up, by throwing
+     * TimedOut, once System.nanoTime passes the deadline.  Lines found by the
+     * automaton may take java.util.regex exponential time to match again, so
+     * anything finding where they matched should read them through this.
+     */
+    static CharSequence bounded(CharSequence line, long deadline){
+        Deadline d = new Deadline();
+        d.reset(line, deadline);
+        return d;
+    }
+
+    /**
+     * Thrown by find when java.util.regex runs past the matcher's time budget
+     * for a line.  It's expected and caught right away, so has no stack trace.
+     */
+    static class TimedOut extends RuntimeException {
+        private static final long serialVersionUID = 6893370593209722460L;
+
+        TimedOut(){
+            super("Matching the line took too long.", null, false, false);
+        }
+    }
+
+    /**
+     * Matches with java.util.regex, reusing one Matcher, and if it has a
+     * budget giving up on lines which take longer than that.
+     */
+    static class Regex extends LineMatcher {
+        private final Matcher m;
+        private final long budget;
+        private final Deadline deadline = new Deadline();
+
+        Regex(Pattern pattern, long budget){
+            m = pattern.matcher("");
+            this.budget = budget;
+        }
+
+        @Override
+        boolean find(CharSequence line){
+            if(budget > 0){
+                deadline.reset(line, System.nanoTime()+budget);
+                line = deadline;
+            }
+            return m.reset(line).find();
+        }
+    }
+
+    /**
+     * A line which throws TimedOut from charAt once a deadline has passed.
+     * java.util.regex reads its input one charAt at a time, backtracking
+     * included, so this bounds the time it can spend on a line; the clock is
+     * only read every few thousand characters.
+     */
+    private static class Deadline implements CharSequence {
+        private static final int CHECK_CHARS = 4096;
+
+        private CharSequence line;
+        private long deadline;
+        private int countdown;
+
+        void reset(CharSequence l, long d){
+            line = l;
+            deadline = d;
+            countdown = CHECK_CHARS;
+        }
+
+        @Override
+        public char charAt(int index){
+            if(--countdown < 0){
+                countdown = CHECK_CHARS;
+                if(System.nanoTime()-deadline > 0)
+                    throw new TimedOut();
+            }
+            return line.charAt(index);
+        }
+
+        @Override
+        public int length(){
+            return line.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end){
+            return line.subSequence(start, end);
+        }
+
+        @Override
+        public String toString(){
+            return line.toString();
+        }
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file line by line through a FileChannel, or from its contents if
+ * they were already read.  The file is read in large blocks and line
+ * terminators (\n, \r\n or \r) are found in the raw bytes, so no String is
+ * built for a line unless the caller asks for one.  Lines are identified by
+ * the file offsets of their first and last (exclusive) bytes.
+ *
+ * The default charset is assumed to encode \r and \n as single bytes, as
+ * every ASCII compatible charset does.  Unlike Scanner, which this replaced,
+ * U+0085, U+2028 and U+2029 don't end lines, as they don't for grep.
+ */
+class LineReader implements Closeable {
+    static final Charset CHARSET = Charset.defaultCharset();
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final int SNIFF_SIZE = 8*1024;
+    // single byte charsets decode nearly any byte, so only multi-byte encodings can be invalid
+    private static final boolean SNIFF_ENCODING = CHARSET.canEncode() && CHARSET.newEncoder().maxBytesPerChar() > 1;
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private byte[] bytes;
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private long bufferOffset = 0; // file offset of bytes[0]
+    private int limit = 0; // number of valid bytes
+    private int pos = 0; // start of the next line
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private boolean eof = false;
+    private long bytesRead = 0;
+    private long readNanos = 0;
+    // the last literal search: no match ending before found lies in
+    // bytes[searchFrom, found), nor does any lie in bytes[searchFrom, searchTo)
+    // if nothing was found
+    private int searchFrom = -1;
+    private int searchTo = -1;
+    private int found = -1;
+
+    LineReader(File file) throws IOException {
+        this(file, 0);
+    }
+
+    /**
+     * Reads the file from the given offset, which should be the start of a line.
+     */
+    LineReader(File file, long offset) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        channel.position(offset);
+        bufferOffset = offset;
+        bytes = new byte[BUFFER_SIZE];
+        decoder = newDecoder();
+    }
+
+    /**
+     * Reads lines from a whole file's contents, which were already read in the
+     * given time.
+     */
+    LineReader(byte[] contents, long nanos){
+        channel = null;
+        bytes = contents;
+        limit = contents.length;
+        eof = true;
+        bytesRead = contents.length;
+        readNanos = nanos;
+        decoder = newDecoder();
+    }
+
+    private static CharsetDecoder newDecoder(){
+        return CHARSET.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Returns true if the start of the file looks like binary data rather than
+     * text, because it contains a NUL byte or is not validly encoded.  Must be
+     * called before the first line is read.
+     */
+    boolean isBinary() throws IOException {
+        while(limit < SNIFF_SIZE && !eof)
+            fill();
+        int n = Math.min(limit, SNIFF_SIZE);
+        for(int i = 0; i < n; i++){
+            if(bytes[i] == 0)
+                return true;
+        }
+        if(!SNIFF_ENCODING)
+            return false;
+        // a character cut off at the end of the sniffed bytes is not an error
+        CoderResult res = CHARSET.newDecoder().decode(ByteBuffer.wrap(bytes, 0, n), CharBuffer.allocate(n), eof && n == limit);
+        return res.isError();
+    }
+
+    /**
+     * Advances to the next line.
+     * @return false if there are no more lines
+     */
+    boolean next() throws IOException {
+        int scan = pos;
+        while(true){
+            int i = scan;
+            for(; i < limit; i++){
+                byte b = bytes[i];
+                if(b == LF){
+                    lineStart = pos;
+                    lineEnd = i;
+                    pos = i+1;
+                    return true;
+                }
+                if(b == CR){
+                    if(i+1 == limit && !eof)
+                        break; // need the next byte to tell \r from \r\n
+                    lineStart = pos;
+                    lineEnd = i;
+                    pos = i+1 < limit && bytes[i+1] == LF ? i+2 : i+1;
+                    return true;
+                }
+            }
+            if(eof){
+                if(pos == limit)
+                    return false;
+                lineStart = pos;
+                lineEnd = limit;
+                pos = limit;
+                return true;
+            }
+            int scanned = i-pos;
+            fill();
+            scan = pos+scanned;
+        }
+    }
+
+    /**
+     * Reads another block from the file, first discarding any bytes before the
+     * current position, and growing the buffer if the current line takes it up
+     * entirely.
+     */
+    private void fill() throws IOException {
+        int keep = pos;
+        searchFrom = -1;
+        if(keep > 0){
+            System.arraycopy(bytes, keep, bytes, 0, limit-keep);
+            limit -= keep;
+            pos -= keep;
+            lineStart -= keep;
+            lineEnd -= keep;
+            bufferOffset += keep;
+        }
+        if(limit == bytes.length){
+            byte[] grown = new byte[bytes.length*2];
+            System.arraycopy(bytes, 0, grown, 0, limit);
+            bytes = grown;
+        }
+        long start = System.nanoTime();
+        int read = channel.read(ByteBuffer.wrap(bytes, limit, bytes.length-limit));
+        readNanos += System.nanoTime()-start;
+        if(read < 0){
+            eof = true;
+        } else {
+            limit += read;
+            bytesRead += read;
+        }
+    }
+
+    /** The number of bytes read from the file so far. */
+    long bytesRead(){
+        return bytesRead;
+    }
+
+    /** The time spent reading from the file so far. */
+    long readNanos(){
+        return readNanos;
+    }
+
+    /** File offset of the first byte of the current line. */
+    long lineStart(){
+        return bufferOffset+lineStart;
+    }
+
+    /** File offset just past the last byte of the current line, excluding the terminator. */
+    long lineEnd(){
+        return bufferOffset+lineEnd;
+    }
+
+    /** File offset of the first byte of the next line, after the current line's terminator. */
+    long nextLineStart(){
+        return bufferOffset+pos;
+    }
+
+    /**
+     * Returns true if the current line contains any of the matcher's literal
+     * strings.  Rather than searching line by line, the buffered bytes are
+     * searched from the current line onward and the end of the next occurrence
+     * is remembered, so the lines in between are rejected without being
+     * examined.  Literals never contain line terminators, so an occurrence
+     * ending within the current line lies entirely within it.  Callers should
+     * use the same matcher for every line.
+     */
+    boolean contains(LiteralMatcher lit){
+        boolean stale = searchFrom < 0 || lineStart < searchFrom
+                || (found < 0 ? lineEnd > searchTo : found <= lineStart);
+        if(stale){
+            searchFrom = lineStart;
+            searchTo = limit;
+            found = lit.findEnd(bytes, lineStart, limit);
+        }
+        return found >= 0 && found <= lineEnd;
+    }
+
+    /**
+     * Returns which of the matcher's literal strings occurs first in the
+     * current line, or null if none does.
+     */
+    String firstLiteral(AhoCorasick lit){
+        return lit.first(bytes, lineStart, lineEnd);
+    }
+
+    /**
+     * Decodes the current line into a buffer which is reused by the next call,
+     * suitable for matching without allocating a String.
+     */
+    CharSequence chars(){
+        ByteBuffer in = ByteBuffer.wrap(bytes, lineStart, lineEnd-lineStart);
+        if(chars.capacity() < in.remaining())
+            chars = CharBuffer.allocate(Math.max(in.remaining(), chars.capacity()*2));
+        chars.clear();
+        decoder.reset();
+        decoder.decode(in, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+        return chars;
+    }
+
+    /** Writes the current line's bytes as they are, including its terminator. */
+    void copyLine(OutputStream out) throws IOException {
+        out.write(bytes, lineStart, pos-lineStart);
+    }
+
+    /** Writes the current line's terminator, which is empty for an unterminated last line. */
+    void copyTerminator(OutputStream out) throws IOException {
+        out.write(bytes, lineEnd, pos-lineEnd);
+    }
+
+    /** Decodes the current line. */
+    String line(){
+        return new String(bytes, lineStart, lineEnd-lineStart, CHARSET);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel != null)
+            channel.close();
+    }
+}
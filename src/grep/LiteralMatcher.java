@@ -0,0 +1,237 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Searches raw bytes for literal strings, rather than decoding them and
+ * matching the text.  A single string is searched for with the
+ * Boyer-Moore-Horspool algorithm, skipping ahead by up to the length of the
+ * string after each mismatch, and several at once with an {@link AhoCorasick}
+ * automaton.  The case insensitive variants fold ASCII letters only, which is
+ * exactly how Pattern.CASE_INSENSITIVE behaves without Pattern.UNICODE_CASE.
+ *
+ * Searching bytes is only equivalent to searching decoded text when every
+ * character has a single encoding and no character's encoding can appear
+ * inside another's, so only single-byte charsets and UTF-8 are supported.
+ * Strings containing line terminators are not supported either, so a match
+ * never spans lines.  Matchers hold no search state and may be shared.
+ */
+abstract class LiteralMatcher {
+    static final byte[] FOLD = new byte[256];
+    static {
+        for(int i = 0; i < 256; i++){
+            FOLD[i] = (byte)(i >= 'A' && i <= 'Z' ? i+('a'-'A') : i);
+        }
+    }
+    // the matcher and prefilter for each pattern searched, or NONE, so each is only built once
+    private static final Map<Pattern,LiteralMatcher> MATCHERS =
+            Collections.synchronizedMap(new WeakHashMap<Pattern,LiteralMatcher>());
+    private static final Map<Pattern,LiteralMatcher> PREFILTERS =
+            Collections.synchronizedMap(new WeakHashMap<Pattern,LiteralMatcher>());
+    private static final LiteralMatcher NONE = new Horspool(new byte[1], false);
+
+    /**
+     * Returns a matcher equivalent to the given pattern, or null if the pattern
+     * is not made of literal strings or they cannot be searched for as bytes in
+     * the default charset.  Patterns compiled with Pattern.LITERAL, regular
+     * expressions without any metacharacters, and alternations of either, like
+     * those made by {@link Grep#anyOf}, are made of literal strings.
+     */
+    static LiteralMatcher forPattern(Pattern pattern){
+        LiteralMatcher lit = MATCHERS.get(pattern);
+        if(lit == null){
+            lit = forPattern(pattern, LineReader.CHARSET);
+            MATCHERS.put(pattern, lit == null ? NONE : lit);
+        }
+        return lit == NONE ? null : lit;
+    }
+
+    /**
+     * Returns a matcher for a literal string every match of the pattern must
+     * contain, or null if there is none which can be searched for as bytes in
+     * the default charset.  Lines without the string can't match the pattern,
+     * so only the lines with it need to be matched against the pattern itself.
+     * The longest such string is used, as it's likely the rarest and lets the
+     * search skip furthest.
+     */
+    static LiteralMatcher prefilter(Pattern pattern){
+        LiteralMatcher lit = PREFILTERS.get(pattern);
+        if(lit == null){
+            lit = prefilter(pattern, LineReader.CHARSET);
+            PREFILTERS.put(pattern, lit == null ? NONE : lit);
+        }
+        return lit == NONE ? null : lit;
+    }
+
+    static LiteralMatcher prefilter(Pattern pattern, Charset charset){
+        boolean caseInsense = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+        byte[] best = null;
+        for(String str : RegexLiterals.required(pattern)){
+            byte[] bytes = searchable(str, charset, caseInsense);
+            if(bytes != null && (best == null || bytes.length > best.length))
+                best = bytes;
+        }
+        return best == null ? null : new Horspool(best, caseInsense);
+    }
+
+    static LiteralMatcher forPattern(Pattern pattern, Charset charset){
+        List<String> strings = RegexLiterals.alternatives(pattern);
+        if(strings == null)
+            return null;
+        boolean caseInsense = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+        ArrayList<byte[]> encoded = new ArrayList<>(strings.size());
+        for(String str : strings){
+            byte[] bytes = searchable(str, charset, caseInsense);
+            if(bytes == null)
+                return null;
+            encoded.add(bytes);
+        }
+        if(encoded.size() == 1)
+            return new Horspool(encoded.get(0), caseInsense);
+        try {
+            return new AhoCorasick(encoded, strings, caseInsense);
+        } catch (IllegalArgumentException e) { // too many to search for as bytes
+            return null;
+        }
+    }
+
+    /**
+     * Encodes a string to search for, or returns null if it can't be searched
+     * for as bytes.
+     */
+    private static byte[] searchable(String str, Charset charset, boolean caseInsense){
+        if(str.isEmpty() || str.indexOf('\n') >= 0 || str.indexOf('\r') >= 0)
+            return null;
+        byte[] bytes = encode(str, charset);
+        if(bytes == null)
+            return null;
+        if(caseInsense){ // non-ASCII letters would not be folded in their encoded form
+            for(byte b : bytes){
+                if(b < 0)
+                    return null;
+            }
+        }
+        return bytes;
+    }
+
+    private static byte[] encode(String str, Charset charset){
+        CharsetEncoder enc = charset.newEncoder();
+        if(enc.maxBytesPerChar() != 1 && !charset.equals(StandardCharsets.UTF_8))
+            return null;
+        if(str.indexOf('\uFFFD') >= 0) // may match bytes the decoder replaced
+            return null;
+        try {
+            ByteBuffer buf = enc.encode(CharBuffer.wrap(str));
+            byte[] bytes = new byte[buf.remaining()];
+            buf.get(bytes);
+            if(!new String(bytes, charset).equals(str))
+                return null;
+            return bytes;
+        } catch (CharacterCodingException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the index just past the first occurrence of any of the strings
+     * lying entirely within bytes[from, to), the one which ends first, or -1 if
+     * there is none.
+     */
+    abstract int findEnd(byte[] bytes, int from, int to);
+
+    /**
+     * Searches for a single string.
+     */
+    private static class Horspool extends LiteralMatcher {
+        private final byte[] needle;
+        private final boolean caseInsensitive;
+        private final int[] skip = new int[256];
+
+        Horspool(byte[] bytes, boolean caseInsense){
+            caseInsensitive = caseInsense;
+            needle = new byte[bytes.length];
+            for(int i = 0; i < bytes.length; i++){
+                needle[i] = caseInsense ? FOLD[bytes[i] & 0xff] : bytes[i];
+            }
+            int last = needle.length-1;
+            for(int i = 0; i < 256; i++){
+                skip[i] = needle.length;
+            }
+            for(int i = 0; i < last; i++){
+                skip[needle[i] & 0xff] = last-i;
+                if(caseInsense) // the upper case letter must skip the same distance
+                    skip[Character.toUpperCase((char)(needle[i] & 0xff)) & 0xff] = last-i;
+            }
+        }
+
+        @Override
+        int findEnd(byte[] bytes, int from, int to){
+            int found = find(bytes, from, to);
+            return found < 0 ? -1 : found+needle.length;
+        }
+
+        /**
+         * Returns the index of the first occurrence of the string lying entirely
+         * within bytes[from, to), or -1 if there is none.
+         */
+        int find(byte[] bytes, int from, int to){
+            int last = needle.length-1;
+            int i = from+last;
+            if(caseInsensitive){
+                while(i < to){
+                    int j = last;
+                    int k = i;
+                    while(FOLD[bytes[k] & 0xff] == needle[j]){
+                        if(j == 0)
+                            return k;
+                        j--;
+                        k--;
+                    }
+                    i += skip[bytes[i] & 0xff];
+                }
+            } else {
+                while(i < to){
+                    int j = last;
+                    int k = i;
+                    while(bytes[k] == needle[j]){
+                        if(j == 0)
+                            return k;
+                        j--;
+                        k--;
+                    }
+                    i += skip[bytes[i] & 0xff];
+                }
+            }
+            return -1;
+        }
+    }
+}
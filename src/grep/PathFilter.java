@@ -0,0 +1,310 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the files under a search root with include and exclude globs and
+ * .gitignore style ignore files.  Globs follow .gitignore syntax: a glob with
+ * no slash matches a name at any depth, a glob containing a slash matches the
+ * path relative to the root (or to the ignore file), ** matches any number of
+ * directories, and a trailing slash matches only directories.  Each glob is
+ * compiled once, into a name comparison where possible and a regular
+ * expression otherwise.
+ *
+ * Directories which are excluded or ignored are rejected, so searches never
+ * descend into them.  Include globs only apply to files.  When ignore files
+ * are used, each directory's ignore files are read the first time a path in
+ * it is checked, and version control directories such as .git are skipped.
+ *
+ * Filters are safe to use from the worker threads of a parallel search.
+ */
+public class PathFilter implements FileFilter {
+    private static final HashSet<String> VCS_DIRS = new HashSet<>(Arrays.asList(".git", ".hg", ".svn", ".bzr", "CVS"));
+
+    private final String rootPrefix;
+    private final ArrayList<Rule> includes = new ArrayList<>();
+    private final ArrayList<Rule> excludes = new ArrayList<>();
+    private final ArrayList<String> ignoreNames = new ArrayList<>();
+    // rules of the ignore files in each directory, by path relative to the root
+    private final ConcurrentHashMap<String,List<Rule>> ignores = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a filter accepting everything under the given root until globs or
+     * ignore files are added.
+     */
+    public PathFilter(File root){
+        String path = root.getPath();
+        rootPrefix = path.endsWith(File.separator) ? path : path+File.separator;
+    }
+
+    /**
+     * Creates a filter accepting the files with any of the given extensions,
+     * or every file if one of them is *.
+     */
+    public static PathFilter forExtensions(File root, String[] extensions){
+        PathFilter filter = new PathFilter(root);
+        for(String ext : extensions){
+            ext = ext.replace(".", "").trim();
+            if(ext.equals("*"))
+                return new PathFilter(root);
+            if(!ext.isEmpty())
+                filter.include("*."+ext);
+        }
+        return filter;
+    }
+
+    /**
+     * Only accept files matching this or another include glob.
+     */
+    public PathFilter include(String glob){
+        includes.add(compile(glob));
+        return this;
+    }
+
+    /**
+     * Reject files and directories matching this glob.
+     */
+    public PathFilter exclude(String glob){
+        excludes.add(compile(glob));
+        return this;
+    }
+
+    /**
+     * Reject files and directories ignored by ignore files with the given names,
+     * such as .gitignore, in the root or any directory beneath it.
+     */
+    public PathFilter useIgnoreFiles(String... names){
+        ignoreNames.addAll(Arrays.asList(names));
+        ignores.clear();
+        return this;
+    }
+
+    private static Rule compile(String glob){
+        Rule rule = Rule.parse(glob);
+        if(rule == null || rule.negate)
+            throw new Grep.GrepException("Invalid glob: "+glob);
+        return rule;
+    }
+
+    @Override
+    public boolean accept(File file){
+        String path = file.getPath();
+        String name = file.getName();
+        String rel = path.startsWith(rootPrefix) ? path.substring(rootPrefix.length()) : name;
+        if(File.separatorChar != '/')
+            rel = rel.replace(File.separatorChar, '/');
+        boolean dir = file.isDirectory();
+        if(dir && !ignoreNames.isEmpty() && VCS_DIRS.contains(name))
+            return false;
+        for(Rule r : excludes){
+            if(r.matches(rel, name, dir))
+                return false;
+        }
+        if(!ignoreNames.isEmpty() && ignored(rel, name, dir))
+            return false;
+        if(dir || includes.isEmpty())
+            return true;
+        for(Rule r : includes){
+            if(r.matches(rel, name, dir))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks the ignore files from the path's own directory up to the root; the
+     * last matching rule of the deepest ignore file with one decides.
+     */
+    private boolean ignored(String rel, String name, boolean dir){
+        int slash = rel.lastIndexOf('/');
+        while(true){
+            String dirRel = slash < 0 ? "" : rel.substring(0, slash);
+            List<Rule> rules = rules(dirRel);
+            String sub = slash < 0 ? rel : rel.substring(slash+1);
+            for(int i = rules.size()-1; i >= 0; i--){
+                Rule r = rules.get(i);
+                if(r.matches(sub, name, dir))
+                    return !r.negate;
+            }
+            if(slash < 0)
+                return false;
+            slash = dirRel.lastIndexOf('/');
+        }
+    }
+
+    private List<Rule> rules(String dirRel){
+        List<Rule> rules = ignores.get(dirRel);
+        if(rules != null)
+            return rules;
+        rules = new ArrayList<>();
+        File dir = new File(rootPrefix+dirRel);
+        for(String ignoreName : ignoreNames){
+            File f = new File(dir, ignoreName);
+            if(!f.isFile())
+                continue;
+            try {
+                for(String line : Files.readAllLines(f.toPath(), StandardCharsets.UTF_8)){
+                    Rule r = Rule.parse(line);
+                    if(r != null)
+                        rules.add(r);
+                }
+            } catch (IOException e) {
+                // TODO Improve error reporting
+                System.err.println(e);
+            }
+        }
+        if(rules.isEmpty())
+            rules = Collections.emptyList();
+        ignores.putIfAbsent(dirRel, rules);
+        return rules;
+    }
+
+    /**
+     * A single compiled glob.
+     */
+    private static class Rule {
+        boolean negate;
+        boolean dirOnly;
+        boolean anchored; // matched against the relative path rather than the name
+        String exact; // the name, if the glob has no wildcards
+        String suffix; // the rest, if the glob is * followed by no wildcards
+        Pattern regex;
+
+        /**
+         * Parses a line of an ignore file, returning null for blank lines and comments.
+         */
+        static Rule parse(String line){
+            String glob = line;
+            while(glob.endsWith(" ") && !glob.endsWith("\\ "))
+                glob = glob.substring(0, glob.length()-1);
+            if(glob.isEmpty() || glob.startsWith("#"))
+                return null;
+            Rule r = new Rule();
+            if(glob.startsWith("!")){
+                r.negate = true;
+                glob = glob.substring(1);
+            }
+            if(glob.endsWith("/")){
+                r.dirOnly = true;
+                glob = glob.substring(0, glob.length()-1);
+            }
+            if(glob.startsWith("/")){
+                r.anchored = true;
+                glob = glob.substring(1);
+            } else if(glob.contains("/")){
+                r.anchored = true;
+            }
+            if(glob.isEmpty())
+                return null;
+            if(!r.anchored && !hasWildcards(glob)){
+                r.exact = glob;
+            } else if(!r.anchored && glob.startsWith("*") && !hasWildcards(glob.substring(1))){
+                r.suffix = glob.substring(1);
+            } else {
+                r.regex = Pattern.compile(toRegex(glob));
+            }
+            return r;
+        }
+
+        private static boolean hasWildcards(String glob){
+            for(int i = 0; i < glob.length(); i++){
+                if("*?[\\".indexOf(glob.charAt(i)) >= 0)
+                    return true;
+            }
+            return false;
+        }
+
+        private static String toRegex(String glob){
+            StringBuilder re = new StringBuilder();
+            int i = 0;
+            if(glob.startsWith("**/")){
+                re.append("(?:.*/)?");
+                i = 3;
+            }
+            for(; i < glob.length(); i++){
+                char c = glob.charAt(i);
+                switch(c){
+                case '*':
+                    if(glob.startsWith("**", i)){
+                        if(glob.startsWith("**/", i)){
+                            re.append("(?:.*/)?");
+                            i += 2;
+                        } else {
+                            re.append(".*");
+                            i++;
+                        }
+                    } else {
+                        re.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    re.append("[^/]");
+                    break;
+                case '[': {
+                    int end = glob.indexOf(']', i+2);
+                    if(end < 0){
+                        re.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i+1, end);
+                    if(set.startsWith("!"))
+                        set = "^"+set.substring(1);
+                    re.append('[').append(set.replace("[", "\\[")).append(']');
+                    i = end;
+                    break;
+                }
+                case '\\':
+                    if(i+1 < glob.length())
+                        c = glob.charAt(++i);
+                    re.append(Pattern.quote(String.valueOf(c)));
+                    break;
+                default:
+                    if(Character.isLetterOrDigit(c) || c == '/')
+                        re.append(c);
+                    else
+                        re.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            return re.toString();
+        }
+
+        boolean matches(String rel, String name, boolean dir){
+            if(dirOnly && !dir)
+                return false;
+            if(exact != null)
+                return exact.equals(name);
+            if(suffix != null)
+                return name.endsWith(suffix);
+            return regex.matcher(anchored ? rel : name).matches();
+        }
+    }
+}
@@ -0,0 +1,847 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Matches regular expressions in time linear in the length of the line, no
+ * matter the pattern, so patterns like (.*a){12}b which make java.util.regex
+ * backtrack exponentially can't hang a search.  The pattern is compiled into a
+ * Thompson NFA, which is run as a DFA built lazily, one state at a time, as
+ * lines need them; each thread keeps its own DFA, which is thrown away and
+ * rebuilt if it grows too large.
+ *
+ * Only the parts of the syntax which can be matched this way, and whose meaning
+ * is certain, are supported: literals, character classes without intersections
+ * or nesting, the predefined \d \w \s classes and their negations, ., groups,
+ * alternation, greedy and reluctant quantifiers, and the ^ $ \A \z \Z \b \B
+ * anchors.  {@link #compile} returns null for anything else, such as back
+ * references, lookaround, possessive quantifiers, \p classes, inline flags or
+ * unsupported compile flags, and those patterns are left to java.util.regex.
+ *
+ * Lines containing characters whose treatment java.util.regex varies, the
+ * Unicode line separators and, when \b or \B is used, anything outside ASCII,
+ * are matched with java.util.regex as well.
+ */
+class RegexAutomaton {
+    private static final int MAX_PROGRAM = 10000; // instructions, beyond which repetition is left to java.util.regex
+    private static final int MAX_STATES = 4096; // DFA states per thread, beyond which the DFA is rebuilt
+    private static final int UNSUPPORTED_FLAGS = Pattern.UNIX_LINES | Pattern.COMMENTS | Pattern.UNICODE_CASE
+            | Pattern.CANON_EQ | Pattern.UNICODE_CHARACTER_CLASS;
+
+    // instructions
+    private static final int SET = 0; // consume a character in sets[arg], then go to next
+    private static final int SPLIT = 1; // go to both next and arg
+    private static final int ASSERT = 2; // go to next if the assertion arg holds
+    private static final int MATCH = 3;
+    // assertions
+    private static final int LINE_START = 0;
+    private static final int LINE_END = 1;
+    private static final int WORD_BOUNDARY = 2;
+    private static final int NOT_WORD_BOUNDARY = 3;
+    private static final int LINE_START_NOT_END = 4; // multiline ^, which doesn't match at the end of the input
+
+    private static final int MAX_CODE_POINT = Character.MAX_CODE_POINT;
+    private static final int[] ANY = {0, MAX_CODE_POINT};
+    private static final int[] LINE_TERMINATORS = {'\n', '\n', '\r', '\r', 0x85, 0x85, 0x2028, 0x2029};
+    private static final int[] DIGITS = {'0', '9'};
+    private static final int[] WORD = {'0', '9', 'A', 'Z', '_', '_', 'a', 'z'};
+    private static final int[] SPACE = {'\t', '\r', ' ', ' '};
+
+    // the program, run from start
+    private final int[] op;
+    private final int[] arg;
+    private final int[] next;
+    private final int start;
+    private final List<int[]> sets; // sorted, disjoint, inclusive ranges of code points
+    // the alphabet: code points which every set treats alike share a class
+    private final int[] cuts; // the first code point of each class
+    private final int[] asciiClass = new int[128];
+    private final boolean[] special; // classes of the characters matched by java.util.regex instead
+    private final boolean[] word;
+    private final boolean usesWordBoundary;
+    private final ThreadLocal<Dfa> dfas = new ThreadLocal<Dfa>() {
+        @Override
+        protected Dfa initialValue(){
+            return new Dfa();
+        }
+    };
+
+    private RegexAutomaton(Parser parser){
+        Program prog = new Program();
+        int match = prog.emit(MATCH, 0, 0);
+        start = prog.compile(parser.root, match);
+        op = prog.op.toArray();
+        arg = prog.arg.toArray();
+        next = prog.next.toArray();
+        sets = parser.sets;
+        usesWordBoundary = parser.usesWordBoundary;
+
+        TreeSet<Integer> starts = new TreeSet<>();
+        starts.add(0);
+        for(int[] set : sets){
+            addCuts(starts, set);
+        }
+        addCuts(starts, LINE_TERMINATORS);
+        if(usesWordBoundary){
+            addCuts(starts, WORD);
+            starts.add(128);
+        }
+        cuts = new int[starts.size()];
+        int i = 0;
+        for(int cut : starts){
+            cuts[i++] = cut;
+        }
+        special = new boolean[cuts.length];
+        word = new boolean[cuts.length];
+        for(int k = 0; k < cuts.length; k++){
+            int c = cuts[k];
+            special[k] = c == 0x85 || c == 0x2028 || c == 0x2029 || (usesWordBoundary && c >= 128);
+            word[k] = contains(WORD, c);
+        }
+        for(int c = 0; c < 128; c++){
+            asciiClass[c] = classOf(c);
+        }
+    }
+
+    private static void addCuts(TreeSet<Integer> starts, int[] set){
+        for(int i = 0; i < set.length; i += 2){
+            starts.add(set[i]);
+            if(set[i+1] < MAX_CODE_POINT)
+                starts.add(set[i+1]+1);
+        }
+    }
+
+    /**
+     * Compiles the pattern, or returns null if it uses syntax or flags the
+     * automaton doesn't support.
+     */
+    static RegexAutomaton compile(Pattern pattern){
+        if((pattern.flags() & UNSUPPORTED_FLAGS) != 0)
+            return null;
+        try {
+            return new RegexAutomaton(new Parser(pattern));
+        } catch (UnsupportedOperationException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a matcher for the calling thread.  The automaton doesn't hold on to
+     * the pattern it was compiled from, so it can be cached by pattern in a weak
+     * map; it's given here for the lines java.util.regex has to match, along
+     * with the time budget for them.
+     */
+    LineMatcher matcher(Pattern pattern, long budget){
+        return new AutomatonMatcher(dfas.get(), pattern, budget);
+    }
+
+    private int classOf(int c){
+        if(c < 128 && asciiClass[c] != 0)
+            return asciiClass[c];
+        int k = Arrays.binarySearch(cuts, c);
+        return k >= 0 ? k : -k-2;
+    }
+
+    /**
+     * Returns true if the sorted ranges contain the code point.
+     */
+    private static boolean contains(int[] set, int c){
+        int lo = 0;
+        int hi = set.length/2;
+        while(lo < hi){
+            int mid = (lo+hi) >>> 1;
+            if(set[2*mid+1] < c)
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        return lo < set.length/2 && set[2*lo] <= c;
+    }
+
+    private class AutomatonMatcher extends LineMatcher {
+        private final Dfa dfa;
+        private final Pattern pattern;
+        private final long budget;
+        private LineMatcher fallback = null;
+
+        AutomatonMatcher(Dfa d, Pattern p, long b){
+            dfa = d;
+            pattern = p;
+            budget = b;
+        }
+
+        @Override
+        boolean find(CharSequence line){
+            int s = 0;
+            int n = line.length();
+            for(int i = 0; i < n;){
+                int c = line.charAt(i++);
+                if(Character.isHighSurrogate((char)c) && i < n && Character.isLowSurrogate(line.charAt(i)))
+                    c = Character.toCodePoint((char)c, line.charAt(i++));
+                int k = c < 128 ? asciiClass[c] : classOf(c);
+                if(special[k]){
+                    if(fallback == null)
+                        fallback = new LineMatcher.Regex(pattern, budget);
+                    return fallback.find(line);
+                }
+                int t = dfa.trans.get(s)[k];
+                if(t == 0)
+                    t = dfa.step(s, k);
+                if(t < 0)
+                    return true;
+                s = t-1;
+            }
+            return dfa.matchesAtEnd(s);
+        }
+    }
+
+    /**
+     * The DFA states built so far.  A state is the set of NFA threads waiting
+     * to consume the next character, less the one starting there which every
+     * state implicitly has, and what's known of the previous character.
+     */
+    private class Dfa {
+        private static final int AT_START = 1;
+        private static final int AFTER_WORD = 2;
+
+        private final HashMap<State,Integer> index = new HashMap<>();
+        private final ArrayList<State> states = new ArrayList<>();
+        // the next state+1 by state and class, 0 if not yet known, or -1 for a match
+        final ArrayList<int[]> trans = new ArrayList<>();
+        private final ArrayList<Boolean> endMatches = new ArrayList<>();
+        // scratch space for closures
+        private final int[] mark = new int[op.length];
+        private int generation = 0;
+        private final int[] stack = new int[op.length*2+2];
+        private final int[] consumers = new int[op.length];
+        private int consumerCount;
+
+        Dfa(){
+            intern(new State(new int[0], AT_START));
+        }
+
+        private int intern(State st){
+            Integer i = index.get(st);
+            if(i != null)
+                return i;
+            index.put(st, states.size());
+            states.add(st);
+            trans.add(new int[cuts.length]);
+            endMatches.add(null);
+            return states.size()-1;
+        }
+
+        /**
+         * Works out and remembers the transition from state s on class k.
+         */
+        int step(int s, int k){
+            State st = states.get(s);
+            boolean nextWord = word[k];
+            if(closure(st, false, nextWord)){
+                trans.get(s)[k] = -1;
+                return -1;
+            }
+            int c = cuts[k];
+            int[] targets = new int[consumerCount];
+            int count = 0;
+            for(int i = 0; i < consumerCount; i++){
+                int pc = consumers[i];
+                if(contains(sets.get(arg[pc]), c))
+                    targets[count++] = next[pc];
+            }
+            targets = Arrays.copyOf(targets, count);
+            Arrays.sort(targets);
+            State target = new State(targets, usesWordBoundary && nextWord ? AFTER_WORD : 0);
+            if(states.size() >= MAX_STATES && !index.containsKey(target)){
+                index.clear();
+                states.clear();
+                trans.clear();
+                endMatches.clear();
+                intern(new State(new int[0], AT_START));
+                return intern(target)+1; // s is gone, so its transition isn't remembered
+            }
+            int t = intern(target)+1;
+            trans.get(s)[k] = t;
+            return t;
+        }
+
+        boolean matchesAtEnd(int s){
+            Boolean m = endMatches.get(s);
+            if(m == null){
+                m = closure(states.get(s), true, false);
+                endMatches.set(s, m);
+            }
+            return m;
+        }
+
+        /**
+         * Follows the state's threads, and one starting here, up to the
+         * instructions which consume a character, given whether the line ends
+         * here or else whether the next character is a word character.
+         * @return true if a thread reached the match
+         */
+        private boolean closure(State st, boolean atEnd, boolean nextWord){
+            if(++generation == 0){
+                Arrays.fill(mark, 0);
+                generation = 1;
+            }
+            boolean atStart = (st.context & AT_START) != 0;
+            boolean afterWord = (st.context & AFTER_WORD) != 0;
+            int top = 0;
+            stack[top++] = start;
+            for(int pc : st.threads){
+                stack[top++] = pc;
+            }
+            consumerCount = 0;
+            boolean matched = false;
+            while(top > 0){
+                int pc = stack[--top];
+                if(mark[pc] == generation)
+                    continue;
+                mark[pc] = generation;
+                switch(op[pc]){
+                case SET:
+                    consumers[consumerCount++] = pc;
+                    break;
+                case SPLIT:
+                    stack[top++] = arg[pc];
+                    stack[top++] = next[pc];
+                    break;
+                case ASSERT:
+                    boolean holds;
+                    switch(arg[pc]){
+                    case LINE_START: holds = atStart; break;
+                    case LINE_END: holds = atEnd; break;
+                    case WORD_BOUNDARY: holds = afterWord != (nextWord && !atEnd); break;
+                    case NOT_WORD_BOUNDARY: holds = afterWord == (nextWord && !atEnd); break;
+                    default: holds = atStart && !atEnd; break;
+                    }
+                    if(holds)
+                        stack[top++] = next[pc];
+                    break;
+                default:
+                    matched = true;
+                }
+            }
+            return matched;
+        }
+    }
+
+    private static class State {
+        final int[] threads;
+        final int context;
+        private final int hash;
+
+        State(int[] t, int c){
+            threads = t;
+            context = c;
+            hash = Arrays.hashCode(t)*31+c;
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof State))
+                return false;
+            State s = (State)o;
+            return context == s.context && Arrays.equals(threads, s.threads);
+        }
+    }
+
+    /**
+     * The NFA's instructions, compiled from the syntax tree back to front so
+     * each part is compiled knowing where it continues.
+     */
+    private static class Program {
+        final IntList op = new IntList();
+        final IntList arg = new IntList();
+        final IntList next = new IntList();
+
+        int emit(int o, int a, int n){
+            if(op.size >= MAX_PROGRAM)
+                throw new UnsupportedOperationException();
+            op.add(o);
+            arg.add(a);
+            next.add(n);
+            return op.size-1;
+        }
+
+        /**
+         * Compiles a node, returning the instruction which starts it.
+         */
+        int compile(Node node, int then){
+            switch(node.kind){
+            case Node.SET:
+                return emit(SET, node.value, then);
+            case Node.ASSERT:
+                return emit(ASSERT, node.value, then);
+            case Node.CONCAT:
+                for(int i = node.children.size()-1; i >= 0; i--){
+                    then = compile(node.children.get(i), then);
+                }
+                return then;
+            case Node.ALTERNATE: {
+                int pc = compile(node.children.get(node.children.size()-1), then);
+                for(int i = node.children.size()-2; i >= 0; i--){
+                    pc = emit(SPLIT, pc, compile(node.children.get(i), then));
+                }
+                return pc;
+            }
+            default: { // REPEAT
+                Node child = node.children.get(0);
+                int pc = then;
+                if(node.max < 0){
+                    int loop = emit(SPLIT, then, 0);
+                    next.set(loop, compile(child, loop));
+                    pc = loop;
+                } else {
+                    for(int i = node.min; i < node.max; i++){
+                        pc = emit(SPLIT, then, compile(child, pc));
+                    }
+                }
+                for(int i = 0; i < node.min; i++){
+                    pc = compile(child, pc);
+                }
+                return pc;
+            }
+            }
+        }
+    }
+
+    private static class IntList {
+        int[] values = new int[16];
+        int size = 0;
+
+        void add(int v){
+            if(size == values.length)
+                values = Arrays.copyOf(values, size*2);
+            values[size++] = v;
+        }
+
+        void set(int i, int v){
+            values[i] = v;
+        }
+
+        int[] toArray(){
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * A node of the syntax tree.
+     */
+    private static class Node {
+        static final int SET = 0;
+        static final int ASSERT = 1;
+        static final int CONCAT = 2;
+        static final int ALTERNATE = 3;
+        static final int REPEAT = 4;
+
+        final int kind;
+        final int value; // the set or assertion
+        final List<Node> children;
+        int min;
+        int max; // or -1 for no limit
+
+        Node(int k, int v, List<Node> c){
+            kind = k;
+            value = v;
+            children = c;
+        }
+    }
+
+    /**
+     * Parses a pattern into a syntax tree and the character sets it uses,
+     * throwing UnsupportedOperationException for anything not supported.  The
+     * pattern has already been compiled by java.util.regex, so it's known to be
+     * valid.
+     */
+    private static class Parser {
+        private final String re;
+        private final boolean caseInsense;
+        private final boolean dotAll;
+        private final boolean multiline;
+        private int pos = 0;
+        final List<int[]> sets = new ArrayList<>();
+        boolean usesWordBoundary = false;
+        final Node root;
+
+        Parser(Pattern pattern){
+            re = pattern.pattern();
+            caseInsense = (pattern.flags() & Pattern.CASE_INSENSITIVE) != 0;
+            dotAll = (pattern.flags() & Pattern.DOTALL) != 0;
+            multiline = (pattern.flags() & Pattern.MULTILINE) != 0;
+            if((pattern.flags() & Pattern.LITERAL) != 0){
+                ArrayList<Node> chars = new ArrayList<>();
+                while(pos < re.length())
+                    chars.add(literal(nextCodePoint()));
+                root = new Node(Node.CONCAT, 0, chars);
+                return;
+            }
+            root = alternation();
+            if(pos != re.length())
+                throw new UnsupportedOperationException();
+        }
+
+        private int nextCodePoint(){
+            int c = re.codePointAt(pos);
+            pos += Character.charCount(c);
+            return c;
+        }
+
+        private Node set(int[] ranges){
+            sets.add(ranges);
+            return new Node(Node.SET, sets.size()-1, null);
+        }
+
+        private Node literal(int c){
+            return set(fold(new int[]{c, c}));
+        }
+
+        private Node alternation(){
+            ArrayList<Node> alternatives = new ArrayList<>();
+            alternatives.add(sequence());
+            while(pos < re.length() && re.charAt(pos) == '|'){
+                pos++;
+                alternatives.add(sequence());
+            }
+            return alternatives.size() == 1 ? alternatives.get(0) : new Node(Node.ALTERNATE, 0, alternatives);
+        }
+
+        private Node sequence(){
+            ArrayList<Node> items = new ArrayList<>();
+            while(pos < re.length()){
+                char c = re.charAt(pos);
+                if(c == '|' || c == ')')
+                    break;
+                if(re.startsWith("\\Q", pos)){ // a following quantifier applies to the last character
+                    List<Node> quoted = quote();
+                    items.addAll(quoted.subList(0, quoted.size()-1));
+                    items.add(quantified(quoted.get(quoted.size()-1)));
+                    continue;
+                }
+                items.add(quantified(atom()));
+            }
+            return items.size() == 1 ? items.get(0) : new Node(Node.CONCAT, 0, items);
+        }
+
+        private Node atom(){
+            char c = re.charAt(pos);
+            switch(c){
+            case '(': {
+                pos++;
+                if(re.charAt(pos) == '?'){
+                    if(re.charAt(pos+1) == ':'){
+                        pos += 2;
+                    } else if(re.charAt(pos+1) == '<' && Character.isLetter(re.charAt(pos+2))){ // named group
+                        pos = re.indexOf('>', pos)+1;
+                    } else { // lookaround, atomic groups and inline flags
+                        throw new UnsupportedOperationException();
+                    }
+                }
+                Node group = alternation();
+                if(re.charAt(pos) != ')')
+                    throw new UnsupportedOperationException();
+                pos++;
+                return group;
+            }
+            case '[':
+                return set(charClass());
+            case '.':
+                pos++;
+                return set(dotAll ? ANY : complement(LINE_TERMINATORS));
+            case '^':
+                pos++;
+                return new Node(Node.ASSERT, multiline ? LINE_START_NOT_END : LINE_START, null);
+            case '$':
+                pos++;
+                return new Node(Node.ASSERT, LINE_END, null);
+            case '\\':
+                return escape();
+            default:
+                return literal(nextCodePoint());
+            }
+        }
+
+        private Node quantified(Node atom){
+            if(pos >= re.length())
+                return atom;
+            int min;
+            int max;
+            switch(re.charAt(pos)){
+            case '*': min = 0; max = -1; pos++; break;
+            case '+': min = 1; max = -1; pos++; break;
+            case '?': min = 0; max = 1; pos++; break;
+            case '{': {
+                int end = re.indexOf('}', pos);
+                String[] bounds = re.substring(pos+1, end).split(",", -1);
+                min = Integer.parseInt(bounds[0].trim());
+                max = bounds.length == 1 ? min : bounds[1].trim().isEmpty() ? -1 : Integer.parseInt(bounds[1].trim());
+                pos = end+1;
+                break;
+            }
+            default:
+                return atom;
+            }
+            if(pos < re.length() && re.charAt(pos) == '+') // possessive
+                throw new UnsupportedOperationException();
+            if(pos < re.length() && re.charAt(pos) == '?') // reluctant, which matches the same lines
+                pos++;
+            if(min > MAX_PROGRAM || max > MAX_PROGRAM)
+                throw new UnsupportedOperationException();
+            // java.util.regex doesn't retry zero width alternatives when counting repetitions, so ^ or \b
+            // inside {n} can fail where the automaton would match
+            if((min > 1 || max > 1) && hasAssertion(atom))
+                throw new UnsupportedOperationException();
+            Node rep = new Node(Node.REPEAT, 0, Collections.singletonList(atom));
+            rep.min = min;
+            rep.max = max;
+            return rep;
+        }
+
+        /**
+         * Parses the characters quoted by \\Q and \\E.
+         */
+        private List<Node> quote(){
+            pos += 2;
+            int end = re.indexOf("\\E", pos);
+            if(end < 0)
+                end = re.length();
+            if(end == pos)
+                throw new UnsupportedOperationException();
+            ArrayList<Node> chars = new ArrayList<>();
+            while(pos < end)
+                chars.add(literal(nextCodePoint()));
+            pos = Math.min(end+2, re.length());
+            return chars;
+        }
+
+        private static boolean hasAssertion(Node node){
+            if(node.kind == Node.ASSERT)
+                return true;
+            if(node.children != null){
+                for(Node child : node.children){
+                    if(hasAssertion(child))
+                        return true;
+                }
+            }
+            return false;
+        }
+
+        private Node escape(){
+            pos++; // \
+            char c = re.charAt(pos);
+            switch(c){
+            case 'b':
+            case 'B':
+                pos++;
+                if(pos < re.length() && re.charAt(pos) == '{') // \b{g}
+                    throw new UnsupportedOperationException();
+                usesWordBoundary = true;
+                return new Node(Node.ASSERT, c == 'b' ? WORD_BOUNDARY : NOT_WORD_BOUNDARY, null);
+            case 'A':
+                pos++;
+                return new Node(Node.ASSERT, LINE_START, null);
+            case 'z':
+            case 'Z':
+                pos++;
+                return new Node(Node.ASSERT, LINE_END, null);
+            default:
+                pos--;
+                int[] set = classEscape();
+                return set(set.length == 2 && set[0] == set[1] ? fold(set) : set);
+            }
+        }
+
+        /**
+         * Parses an escape standing for a character or a predefined class, as
+         * allowed both inside and outside character classes.
+         */
+        private int[] classEscape(){
+            pos++; // \
+            char c = re.charAt(pos++);
+            int ch;
+            switch(c){
+            case 'd': return DIGITS;
+            case 'D': return complement(DIGITS);
+            case 'w': return WORD;
+            case 'W': return complement(WORD);
+            case 's': return SPACE;
+            case 'S': return complement(SPACE);
+            case 't': ch = '\t'; break;
+            case 'n': ch = '\n'; break;
+            case 'r': ch = '\r'; break;
+            case 'f': ch = '\f'; break;
+            case 'a': ch = '\u0007'; break;
+            case 'e': ch = '\u001B'; break;
+            case 'c': ch = re.charAt(pos++) ^ 64; break;
+            case 'x':
+                if(re.charAt(pos) == '{'){
+                    int end = re.indexOf('}', pos);
+                    ch = Integer.parseInt(re.substring(pos+1, end), 16);
+                    pos = end+1;
+                } else {
+                    ch = Integer.parseInt(re.substring(pos, pos+2), 16);
+                    pos += 2;
+                }
+                break;
+            case 'u':
+                ch = Integer.parseInt(re.substring(pos, pos+4), 16);
+                pos += 4;
+                if(Character.isHighSurrogate((char)ch) && re.startsWith("\\u", pos)){
+                    int low = Integer.parseInt(re.substring(pos+2, pos+6), 16);
+                    if(Character.isLowSurrogate((char)low)){
+                        ch = Character.toCodePoint((char)ch, (char)low);
+                        pos += 6;
+                    }
+                }
+                break;
+            case '0': {
+                int start = pos;
+                ch = 0;
+                while(pos < re.length() && pos-start < 3 && re.charAt(pos) >= '0' && re.charAt(pos) <= '7'
+                        && ch*8 + (re.charAt(pos)-'0') <= 0377){
+                    ch = ch*8 + (re.charAt(pos++)-'0');
+                }
+                break;
+            }
+            default:
+                // back references, \p classes, \Q within classes and other escapes
+                if(Character.isLetterOrDigit(c) || Character.isSurrogate(c))
+                    throw new UnsupportedOperationException();
+                ch = c;
+            }
+            return new int[]{ch, ch};
+        }
+
+        /**
+         * Parses a character class without nested classes or intersections.
+         */
+        private int[] charClass(){
+            pos++; // [
+            boolean negate = false;
+            if(re.charAt(pos) == '^'){
+                negate = true;
+                pos++;
+            }
+            if(re.charAt(pos) == ']')
+                throw new UnsupportedOperationException();
+            ArrayList<int[]> parts = new ArrayList<>();
+            while(re.charAt(pos) != ']'){
+                char c = re.charAt(pos);
+                if(c == '[' || re.startsWith("&&", pos))
+                    throw new UnsupportedOperationException();
+                int[] part = c == '\\' ? classEscape() : new int[]{nextCodePoint(), 0};
+                if(c != '\\')
+                    part[1] = part[0];
+                boolean single = part.length == 2 && part[0] == part[1] && part != DIGITS && part != WORD && part != SPACE;
+                if(single && re.charAt(pos) == '-' && re.charAt(pos+1) != ']'){
+                    pos++;
+                    char d = re.charAt(pos);
+                    if(d == '[')
+                        throw new UnsupportedOperationException();
+                    int[] end = d == '\\' ? classEscape() : new int[]{nextCodePoint(), 0};
+                    if(d == '\\' && (end.length != 2 || end[0] != end[1]))
+                        throw new UnsupportedOperationException();
+                    part = new int[]{part[0], end[0]};
+                }
+                parts.add(part);
+            }
+            pos++; // ]
+            int[] set = fold(union(parts));
+            return negate ? complement(set) : set;
+        }
+
+        /**
+         * Adds the other case of each ASCII letter, if the pattern is case
+         * insensitive.
+         */
+        private int[] fold(int[] set){
+            if(!caseInsense)
+                return set;
+            ArrayList<int[]> parts = new ArrayList<>();
+            parts.add(set);
+            for(int c = 'A'; c <= 'Z'; c++){
+                if(contains(set, c) || contains(set, c+('a'-'A'))){
+                    parts.add(new int[]{c, c});
+                    parts.add(new int[]{c+('a'-'A'), c+('a'-'A')});
+                }
+            }
+            return union(parts);
+        }
+    }
+
+    /**
+     * Merges sets of ranges into sorted, disjoint ranges.
+     */
+    private static int[] union(List<int[]> parts){
+        ArrayList<int[]> ranges = new ArrayList<>();
+        for(int[] part : parts){
+            for(int i = 0; i < part.length; i += 2){
+                ranges.add(new int[]{part[i], part[i+1]});
+            }
+        }
+        Collections.sort(ranges, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b){
+                return Integer.compare(a[0], b[0]);
+            }
+        });
+        IntList merged = new IntList();
+        for(int[] r : ranges){
+            if(merged.size > 0 && r[0] <= merged.values[merged.size-1]+1){
+                merged.set(merged.size-1, Math.max(merged.values[merged.size-1], r[1]));
+            } else {
+                merged.add(r[0]);
+                merged.add(r[1]);
+            }
+        }
+        return merged.toArray();
+    }
+
+    private static int[] complement(int[] set){
+        IntList out = new IntList();
+        int from = 0;
+        for(int i = 0; i < set.length; i += 2){
+            if(set[i] > from){
+                out.add(from);
+                out.add(set[i]-1);
+            }
+            from = set[i+1]+1;
+        }
+        if(from <= MAX_CODE_POINT){
+            out.add(from);
+            out.add(MAX_CODE_POINT);
+        }
+        return out.toArray();
+    }
+}
@@ -0,0 +1,374 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Finds literal strings that every match of a regular expression must contain,
+ * such as "fooBar" in \bfooBar\w*\(.  The analysis is conservative: anything it
+ * doesn't understand, like alternation or an optional group, contributes no
+ * literals, and patterns whose meaning it can't be sure of (inline flags, the
+ * COMMENTS flag) yield none at all.
+ *
+ * When the pattern is case insensitive the literals must be compared the same
+ * way, only folding ASCII letters.
+ */
+class RegexLiterals {
+    private final String re;
+    private int pos = 0;
+
+    private RegexLiterals(String regex){
+        re = regex;
+    }
+
+    /**
+     * Returns the literals every match of the pattern must contain, which may be
+     * an empty list if nothing is known about its matches.
+     */
+    static List<String> required(Pattern pattern){
+        int flags = pattern.flags();
+        String str = pattern.pattern();
+        if((flags & (Pattern.UNICODE_CASE | Pattern.CANON_EQ)) != 0)
+            return Collections.emptyList();
+        if((flags & Pattern.LITERAL) != 0)
+            return str.isEmpty() ? Collections.<String>emptyList() : Collections.singletonList(str);
+        if((flags & Pattern.COMMENTS) != 0)
+            return Collections.emptyList();
+        try {
+            return new RegexLiterals(str).alternation().required;
+        } catch (UnsupportedOperationException | IndexOutOfBoundsException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * Returns the strings the pattern matches, if it's nothing but literal
+     * strings separated by |, or else null.
+     */
+    static List<String> alternatives(Pattern pattern){
+        int flags = pattern.flags();
+        String str = pattern.pattern();
+        if((flags & (Pattern.UNICODE_CASE | Pattern.CANON_EQ | Pattern.COMMENTS)) != 0)
+            return null;
+        if((flags & Pattern.LITERAL) != 0)
+            return Collections.singletonList(str);
+        try {
+            RegexLiterals parser = new RegexLiterals(str);
+            ArrayList<String> alternatives = new ArrayList<>();
+            while(true){
+                String exact = parser.sequence().exact;
+                if(exact == null)
+                    return null;
+                alternatives.add(exact);
+                if(parser.pos == str.length())
+                    return alternatives;
+                if(str.charAt(parser.pos) != '|') // an unbalanced )
+                    return null;
+                parser.pos++;
+            }
+        } catch (UnsupportedOperationException | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the patterns inside each (?:...) group of a pattern which is
+     * nothing but such groups separated by |, like those made by
+     * {@link Grep#anyOf}, or else null.
+     */
+    static List<String> branches(Pattern pattern){
+        if((pattern.flags() & (Pattern.LITERAL | Pattern.COMMENTS)) != 0)
+            return null;
+        String str = pattern.pattern();
+        RegexLiterals parser = new RegexLiterals(str);
+        ArrayList<String> branches = new ArrayList<>();
+        int depth = 0;
+        int start = 0; // of the current branch
+        int closed = -1; // where the current branch's first group ended
+        try {
+            while(parser.pos < str.length()){
+                switch(str.charAt(parser.pos)){
+                case '\\':
+                    parser.escape();
+                    continue;
+                case '[':
+                    parser.skipClass();
+                    continue;
+                case '(':
+                    depth++;
+                    break;
+                case ')':
+                    if(--depth == 0 && closed < 0)
+                        closed = parser.pos+1;
+                    break;
+                case '|':
+                    if(depth == 0){
+                        if(!wrapped(str, start, closed, parser.pos))
+                            return null;
+                        branches.add(str.substring(start+3, parser.pos-1));
+                        start = parser.pos+1;
+                        closed = -1;
+                    }
+                    break;
+                }
+                parser.pos++;
+            }
+        } catch (IndexOutOfBoundsException e) {
+            return null;
+        }
+        if(!wrapped(str, start, closed, str.length()))
+            return null;
+        branches.add(str.substring(start+3, str.length()-1));
+        return branches;
+    }
+
+    private static boolean wrapped(String str, int start, int closed, int end){
+        return str.startsWith("(?:", start) && closed == end;
+    }
+
+    /**
+     * The literals found in part of a pattern.  If the part is nothing but a
+     * literal string, it's also the exact string matched.
+     */
+    private static class Result {
+        final List<String> required;
+        final String exact;
+
+        Result(List<String> req, String ex){
+            required = req;
+            exact = ex;
+        }
+    }
+
+    private enum Quantifier { ONCE, OPTIONAL, REPEATED }
+
+    private Result alternation(){
+        Result first = sequence();
+        if(pos < re.length() && re.charAt(pos) == '|'){
+            while(pos < re.length() && re.charAt(pos) == '|'){
+                pos++;
+                sequence();
+            }
+            return new Result(Collections.<String>emptyList(), null);
+        }
+        return first;
+    }
+
+    private Result sequence(){
+        ArrayList<String> required = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        boolean exact = true;
+        while(pos < re.length()){
+            char c = re.charAt(pos);
+            if(c == '|' || c == ')')
+                break;
+            String lit = null;
+            Result group = null;
+            switch(c){
+            case '(':
+                group = group();
+                break;
+            case '[':
+                skipClass();
+                break;
+            case '\\':
+                lit = escape();
+                break;
+            case '.':
+            case '^':
+            case '$':
+                pos++;
+                break;
+            default:
+                lit = String.valueOf(c);
+                pos++;
+            }
+            Quantifier q = quantifier();
+            if(lit != null && !lit.isEmpty()){
+                if(q == Quantifier.OPTIONAL) // only the last character is quantified
+                    run.append(lit, 0, lit.length()-1);
+                else
+                    run.append(lit);
+                if(q == Quantifier.ONCE)
+                    continue;
+            } else if(group != null){
+                if(q == Quantifier.ONCE && group.exact != null){
+                    run.append(group.exact);
+                    continue;
+                }
+                if(q != Quantifier.OPTIONAL)
+                    required.addAll(group.required);
+            }
+            // anything else ends the current run of literal characters
+            exact = false;
+            if(run.length() > 0)
+                required.add(run.toString());
+            run.setLength(0);
+        }
+        if(run.length() > 0)
+            required.add(run.toString());
+        return new Result(required, exact ? run.toString() : null);
+    }
+
+    /**
+     * Parses a group, returning null for lookaround, which matches nothing.
+     */
+    private Result group(){
+        pos++; // (
+        boolean lookaround = false;
+        if(re.charAt(pos) == '?'){
+            pos++;
+            char c = re.charAt(pos);
+            if(c == ':' || c == '>'){
+                pos++;
+            } else if(c == '=' || c == '!'){
+                pos++;
+                lookaround = true;
+            } else if(c == '<' && (re.charAt(pos+1) == '=' || re.charAt(pos+1) == '!')){
+                pos += 2;
+                lookaround = true;
+            } else if(c == '<'){ // named group
+                pos = re.indexOf('>', pos)+1;
+            } else { // inline flags
+                throw new UnsupportedOperationException();
+            }
+        }
+        Result res = alternation();
+        pos++; // )
+        return lookaround ? null : res;
+    }
+
+    private void skipClass(){
+        pos++; // [
+        if(re.charAt(pos) == '^')
+            pos++;
+        if(re.charAt(pos) == ']')
+            pos++;
+        while(re.charAt(pos) != ']'){
+            char c = re.charAt(pos);
+            if(c == '\\')
+                pos += 2;
+            else if(c == '[')
+                skipClass();
+            else
+                pos++;
+        }
+        pos++; // ]
+    }
+
+    /**
+     * Parses an escape sequence, returning the literal text it matches or null
+     * if it's a character class, assertion or back reference.
+     */
+    private String escape(){
+        pos++; // \
+        char c = re.charAt(pos++);
+        switch(c){
+        case 't': return "\t";
+        case 'n': return "\n";
+        case 'r': return "\r";
+        case 'f': return "\f";
+        case 'a': return "\u0007";
+        case 'e': return "\u001B";
+        case 'c': return String.valueOf((char)(re.charAt(pos++) ^ 64));
+        case 'x':
+            if(re.charAt(pos) == '{'){
+                int end = re.indexOf('}', pos);
+                String hex = re.substring(pos+1, end);
+                pos = end+1;
+                return new String(Character.toChars(Integer.parseInt(hex, 16)));
+            }
+            pos += 2;
+            return String.valueOf((char)Integer.parseInt(re.substring(pos-2, pos), 16));
+        case 'u':
+            pos += 4;
+            return String.valueOf((char)Integer.parseInt(re.substring(pos-4, pos), 16));
+        case '0': {
+            int start = pos;
+            int value = 0;
+            while(pos < re.length() && pos-start < 3 && re.charAt(pos) >= '0' && re.charAt(pos) <= '7'
+                    && value*8 + (re.charAt(pos)-'0') <= 0377){
+                value = value*8 + (re.charAt(pos++)-'0');
+            }
+            return String.valueOf((char)value);
+        }
+        case 'Q': {
+            int end = re.indexOf("\\E", pos);
+            if(end < 0)
+                end = re.length();
+            String quoted = re.substring(pos, end);
+            pos = Math.min(end+2, re.length());
+            return quoted;
+        }
+        case 'p':
+        case 'P':
+        case 'N':
+            if(re.charAt(pos) == '{')
+                pos = re.indexOf('}', pos)+1;
+            else if(c != 'N')
+                pos++;
+            return null;
+        case 'k':
+            pos = re.indexOf('>', pos)+1;
+            return null;
+        default:
+            if(Character.isDigit(c)){ // back reference
+                while(pos < re.length() && Character.isDigit(re.charAt(pos)))
+                    pos++;
+                return null;
+            }
+            if(Character.isLetter(c)) // \d, \w, \b and the like
+                return null;
+            return String.valueOf(c);
+        }
+    }
+
+    private Quantifier quantifier(){
+        if(pos >= re.length())
+            return Quantifier.ONCE;
+        Quantifier q;
+        switch(re.charAt(pos)){
+        case '?':
+        case '*':
+            pos++;
+            q = Quantifier.OPTIONAL;
+            break;
+        case '+':
+            pos++;
+            q = Quantifier.REPEATED;
+            break;
+        case '{': {
+            int end = re.indexOf('}', pos);
+            String min = re.substring(pos+1, end).split(",", -1)[0].trim();
+            pos = end+1;
+            q = Integer.parseInt(min) == 0 ? Quantifier.OPTIONAL : Quantifier.REPEATED;
+            break;
+        }
+        default:
+            return Quantifier.ONCE;
+        }
+        if(pos < re.length() && (re.charAt(pos) == '?' || re.charAt(pos) == '+'))
+            pos++; // reluctant or possessive
+        return q;
+    }
+}
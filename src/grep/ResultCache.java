@@ -0,0 +1,288 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.BinaryFiles;
+import grep.Grep.GrepResult;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Remembers the results of searching each file, so that repeating a search
+ * only reads the files which were added or changed since.  Results are kept
+ * per file and pattern, along with the file's size and modification time when
+ * it was searched; if either differs the file is searched again.  Files which
+ * were deleted are simply never asked for, and age out of the cache.
+ *
+ * The cache holds a bounded number of results, each file counting as at least
+ * one, and evicts the least recently used files beyond that.  It can be saved
+ * to and loaded from a file, and is safe to use from the worker threads of a
+ * parallel search.  Pass it to a search with {@link Grep.Options#setCache}.
+ */
+public class ResultCache {
+    private static final int MAGIC = 0x4a475243; // JGRC
+    private static final int VERSION = 1;
+    /** The default capacity, in results. */
+    public static final int DEFAULT_CAPACITY = 1000000;
+
+    private final int capacity;
+    private final LinkedHashMap<String,Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight = 0;
+
+    public ResultCache(){
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of results to hold, counting each file as at least one
+     */
+    public ResultCache(int capacity){
+        if(capacity < 1)
+            throw new Grep.GrepException("Invalid capacity, must be positive.");
+        this.capacity = capacity;
+    }
+
+    /**
+     * Loads a cache saved by {@link #save(File)}, or returns an empty cache if
+     * the file doesn't exist or was saved by another version.
+     */
+    public static ResultCache load(File f, int capacity) throws IOException {
+        ResultCache cache = new ResultCache(capacity);
+        if(!f.exists())
+            return cache;
+        HashMap<String,Pattern> patterns = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                return cache;
+            int count = in.readInt();
+            for(int i = 0; i < count; i++){
+                String path = readString(in);
+                BinaryFiles mode = BinaryFiles.values()[in.readByte()];
+                int flags = in.readInt();
+                String regex = readString(in);
+                String patternKey = flags+"/"+regex;
+                Pattern pattern = patterns.get(patternKey);
+                if(pattern == null){
+                    pattern = Pattern.compile(regex, flags);
+                    patterns.put(patternKey, pattern);
+                }
+                Entry e = new Entry(path, pattern, mode, in.readLong(), in.readLong());
+                FileContext source = new FileContext(new File(path));
+                int results = in.readInt();
+                e.results = new ArrayList<>(results);
+                for(int j = 0; j < results; j++){
+                    if(in.readBoolean()){
+                        e.results.add(GrepResult.binaryMatch(pattern));
+                        continue;
+                    }
+                    int lineNum = in.readInt();
+                    String line = readString(in);
+                    e.results.add(new GrepResult(lineNum, line, pattern, source,
+                            in.readLong(), in.readLong(), in.readLong()));
+                }
+                cache.add(e);
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Saves the cache, leaving out files which no longer exist.
+     */
+    public void save(File f) throws IOException {
+        ArrayList<Entry> live = new ArrayList<>();
+        synchronized(this){
+            live.addAll(entries.values()); // least recently used first
+        }
+        File tmp = new File(f.getPath()+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            Iterator<Entry> it = live.iterator();
+            while(it.hasNext()){
+                if(!new File(it.next().path).exists())
+                    it.remove();
+            }
+            out.writeInt(live.size());
+            for(Entry e : live){
+                writeString(out, e.path);
+                out.writeByte(e.mode.ordinal());
+                out.writeInt(e.pattern.flags());
+                writeString(out, e.pattern.pattern());
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeInt(e.results.size());
+                for(GrepResult gr : e.results){
+                    out.writeBoolean(gr.isBinary());
+                    if(gr.isBinary())
+                        continue;
+                    out.writeInt(gr.lineNum);
+                    writeString(out, gr.line);
+                    out.writeLong(gr.beforeStart);
+                    out.writeLong(gr.lineStart);
+                    out.writeLong(gr.afterStart);
+                }
+            }
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(DataOutputStream out, String str) throws IOException {
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** The number of files cached. */
+    public synchronized int size(){
+        return entries.size();
+    }
+
+    public synchronized void clear(){
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * Looks up a file's current size and modification time, returning a new
+     * entry to be filled in with the results of searching it, or null if the
+     * file can't be read.
+     */
+    Entry stamp(File file, Pattern pattern, BinaryFiles mode){
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            String path;
+            try {
+                path = file.getCanonicalPath();
+            } catch (IOException e) {
+                path = file.getAbsolutePath();
+            }
+            return new Entry(path, pattern, mode, attrs.size(), attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a copy of the cached results for the stamped file, or null if it
+     * hasn't been searched for the pattern since it last changed.
+     */
+    synchronized ArrayList<GrepResult> get(Entry stamp){
+        Entry e = entries.get(stamp.key);
+        if(e == null)
+            return null;
+        if(e.size != stamp.size || e.mtime != stamp.mtime){
+            remove(e);
+            return null;
+        }
+        return new ArrayList<>(e.results);
+    }
+
+    /**
+     * Returns true if the stamped file's cached results are current, without
+     * copying them.
+     */
+    synchronized boolean isCurrent(Entry stamp){
+        Entry e = entries.get(stamp.key);
+        return e != null && e.size == stamp.size && e.mtime == stamp.mtime;
+    }
+
+    /**
+     * Caches the results of searching the stamped file.
+     */
+    void put(Entry stamp, List<GrepResult> results){
+        stamp.results = new ArrayList<>(results);
+        add(stamp);
+    }
+
+    private synchronized void add(Entry e){
+        Entry old = entries.get(e.key);
+        if(old != null)
+            remove(old);
+        entries.put(e.key, e);
+        weight += e.weight();
+        Iterator<Entry> it = entries.values().iterator();
+        while(weight > capacity && it.hasNext()){
+            Entry eldest = it.next();
+            it.remove();
+            weight -= eldest.weight();
+        }
+    }
+
+    private void remove(Entry e){
+        entries.remove(e.key);
+        weight -= e.weight();
+    }
+
+    /**
+     * The results of searching one file for one pattern, and the file's size
+     * and modification time when it was searched.
+     */
+    static class Entry {
+        final String path;
+        final Pattern pattern;
+        final BinaryFiles mode;
+        final long size;
+        final long mtime;
+        final String key;
+        ArrayList<GrepResult> results;
+
+        Entry(String p, Pattern pat, BinaryFiles m, long s, long t){
+            path = p;
+            pattern = pat;
+            mode = m;
+            size = s;
+            mtime = t;
+            key = path+'\0'+mode+'\0'+pat.flags()+'\0'+pat.pattern();
+        }
+
+        int weight(){
+            return 1+results.size();
+        }
+    }
+
+    @Override
+    public synchronized String toString(){
+        return entries.size()+" files, "+weight+" of "+capacity+" cached";
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.GrepResult;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import javax.swing.AbstractListModel;
+import javax.swing.BorderFactory;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.ListCellRenderer;
+import javax.swing.ListSelectionModel;
+
+/**
+ * Shows the results in one file, with their context lines.  Only the results
+ * scrolled into view are ever drawn: each result is a row of a list with a
+ * fixed height, set by the number of context lines, so the list never needs to
+ * measure every row, and context lines are only loaded from the file for the
+ * rows being painted.  A file with hundreds of thousands of matches therefore
+ * shows as quickly as one with a few, and changing the number of context lines
+ * only resizes the rows.
+ */
+class ResultView extends JPanel {
+    private static final long serialVersionUID = -2383541327620938015L;
+    /** The longest part of a line drawn; the rest is elided. */
+    private static final int MAX_CHARS = 1000;
+    private static final int PADDING = 5;
+
+    private final JLabel title = new JLabel(" ");
+    private final JTextField lineField = new JTextField(6);
+    private final ResultModel model = new ResultModel();
+    private final JList<GrepResult> list = new JList<>(model);
+    private final JScrollPane scroll = new JScrollPane(list);
+    private final ResultRenderer renderer = new ResultRenderer();
+    private int maxChars = 0; // length of the longest matched line
+
+    ResultView(){
+        super(new BorderLayout());
+        JPanel header = new JPanel(new BorderLayout());
+        header.setBorder(BorderFactory.createEmptyBorder(2, 4, 2, 4));
+        header.add(title, BorderLayout.CENTER);
+        JPanel go = new JPanel();
+        go.add(new JLabel("Go to line:"));
+        lineField.setToolTipText("Shows the first match on or after this line");
+        lineField.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent e){
+                try {
+                    goToLine(Integer.parseInt(lineField.getText().trim()));
+                } catch (NumberFormatException ex) {
+                    lineField.selectAll();
+                }
+            }
+        });
+        go.add(lineField);
+        header.add(go, BorderLayout.EAST);
+        add(header, BorderLayout.NORTH);
+
+        list.setCellRenderer(renderer);
+        list.setSelectionMode(ListSelectionModel.MULTIPLE_INTERVAL_SELECTION);
+        add(scroll, BorderLayout.CENTER);
+        setContext(0);
+    }
+
+    /**
+     * Shows the results in a file, scrolled to the first.
+     */
+    void setResults(File file, List<GrepResult> results){
+        list.clearSelection();
+        refresh(file, results);
+        list.scrollRectToVisible(new Rectangle(0, 0, 1, 1));
+    }
+
+    /**
+     * Shows new results in the same file, staying where it's scrolled to.
+     */
+    void refresh(File file, List<GrepResult> results){
+        maxChars = 0;
+        for(GrepResult gr : results)
+            maxChars = Math.max(maxChars, Math.min(MAX_CHARS, gr.getLine().length()));
+        title.setText(file.getAbsolutePath()+" - "+results.size()+" matches in file.");
+        title.setToolTipText(file.getAbsolutePath());
+        model.setResults(results);
+        resize();
+    }
+
+    void clear(){
+        title.setText(" ");
+        title.setToolTipText(null);
+        maxChars = 0;
+        model.setResults(Collections.<GrepResult>emptyList());
+        resize();
+    }
+
+    /**
+     * Changes the number of context lines shown around each result, keeping the
+     * selected result, or else the first visible one, in view.
+     */
+    void setContext(int context){
+        int keep = list.getSelectedIndex();
+        if(keep < 0)
+            keep = list.getFirstVisibleIndex();
+        renderer.context = context;
+        resize();
+        if(keep >= 0)
+            showAtTop(keep);
+    }
+
+    /**
+     * Selects and shows the first result on or after the given line.
+     */
+    void goToLine(int line){
+        List<GrepResult> results = model.results;
+        int lo = 0;
+        int hi = results.size();
+        while(lo < hi){ // results are in line order
+            int mid = (lo+hi) >>> 1;
+            if(results.get(mid).getLineNumber() < line)
+                lo = mid+1;
+            else
+                hi = mid;
+        }
+        if(lo == results.size())
+            lo--;
+        if(lo < 0)
+            return;
+        list.setSelectedIndex(lo);
+        showAtTop(lo);
+    }
+
+    private void showAtTop(int index){
+        Rectangle r = list.getCellBounds(index, index);
+        if(r == null)
+            return;
+        r.height = Math.max(r.height, scroll.getViewport().getExtentSize().height);
+        list.scrollRectToVisible(r);
+    }
+
+    /**
+     * Sets the fixed size of every row, so the list never asks the renderer to
+     * measure them.
+     */
+    private void resize(){
+        FontMetrics fm = list.getFontMetrics(renderer.font);
+        list.setFixedCellHeight((2+2*renderer.context)*fm.getHeight()+PADDING);
+        list.setFixedCellWidth((maxChars+2)*fm.charWidth('m')+2*PADDING);
+    }
+
+    /**
+     * Presents the results as a list without copying them.
+     */
+    private static class ResultModel extends AbstractListModel<GrepResult> {
+        private static final long serialVersionUID = 4126749390823049427L;
+        List<GrepResult> results = Collections.emptyList();
+
+        void setResults(List<GrepResult> res){
+            int old = results.size();
+            results = res;
+            if(old > 0)
+                fireIntervalRemoved(this, 0, old-1);
+            if(res.size() > 0)
+                fireIntervalAdded(this, 0, res.size()-1);
+        }
+
+        @Override
+        public int getSize(){
+            return results.size();
+        }
+
+        @Override
+        public GrepResult getElementAt(int index){
+            return results.get(index);
+        }
+    }
+
+    /**
+     * Paints a result's heading, context and highlighted line directly, rather
+     * than laying out HTML for every row.
+     */
+    private static class ResultRenderer extends JComponent implements ListCellRenderer<GrepResult> {
+        private static final long serialVersionUID = -6407218009419342521L;
+        private static final Color MATCH = new Color(0xff0000);
+
+        final Font font = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+        private final Font bold = font.deriveFont(Font.BOLD);
+        private final Font italic = font.deriveFont(Font.ITALIC);
+        int context = 0;
+        private GrepResult result;
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends GrepResult> list, GrepResult value,
+                int index, boolean selected, boolean focused){
+            result = value;
+            setOpaque(selected);
+            setBackground(list.getSelectionBackground());
+            setForeground(selected ? list.getSelectionForeground() : list.getForeground());
+            return this;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g){
+            if(isOpaque()){
+                g.setColor(getBackground());
+                g.fillRect(0, 0, getWidth(), getHeight());
+            }
+            g.setColor(getForeground());
+            FontMetrics fm = g.getFontMetrics(font);
+            int height = fm.getHeight();
+            int x = PADDING;
+            int y = PADDING+fm.getAscent();
+            g.setFont(italic);
+            if(result.isBinary()){
+                g.drawString("Binary file matches", x, y);
+                return;
+            }
+            if(result.isTimedOut()){ // matching it again would take as long
+                g.drawString("Timed out matching line "+result.getLineNumber(), x, y);
+                g.setFont(font);
+                g.drawString(clip(result.getLine()), x, y+height);
+                return;
+            }
+            String matched = result.getMatchedPattern();
+            g.drawString("Match on line "+result.getLineNumber()+(matched == null ? "" : " of "+clip(matched)), x, y);
+            g.setFont(font);
+            for(String ln : result.getLinesBefore(context)){
+                y += height;
+                g.drawString(clip(ln), x, y);
+            }
+            y += height;
+            paintMatch(g, x, y);
+            g.setFont(font);
+            g.setColor(getForeground());
+            for(String ln : result.getLinesAfter(context)){
+                y += height;
+                g.drawString(clip(ln), x, y);
+            }
+        }
+
+        private void paintMatch(Graphics g, int x, int y){
+            String line = clip(result.getLine());
+            int limit = Math.min(result.getLine().length(), MAX_CHARS);
+            Color fg = getForeground();
+            g.setFont(bold);
+            FontMetrics fm = g.getFontMetrics();
+            int next = 0;
+            for(int[] span : matches(limit)){
+                String before = line.substring(next, span[0]);
+                g.setColor(fg);
+                g.drawString(before, x, y);
+                x += fm.stringWidth(before);
+                String match = line.substring(span[0], span[1]);
+                g.setColor(MATCH);
+                g.drawString(match, x, y);
+                x += fm.stringWidth(match);
+                next = span[1];
+            }
+            g.setColor(fg);
+            g.drawString(line.substring(next), x, y);
+        }
+
+        /**
+         * Finds the non-empty matches starting before the limit, or none if
+         * finding them takes too long; the line was found by the search, maybe
+         * with the automaton, and java.util.regex could take far longer over it,
+         * which mustn't freeze the GUI.
+         */
+        private List<int[]> matches(int limit){
+            ArrayList<int[]> spans = new ArrayList<>();
+            Matcher m = result.boundedMatcher();
+            try {
+                while(m.find() && m.start() < limit){
+                    if(m.end() > m.start())
+                        spans.add(new int[]{m.start(), Math.min(m.end(), limit)});
+                }
+            } catch (LineMatcher.TimedOut e) {
+                return Collections.emptyList();
+            }
+            return spans;
+        }
+
+        private static String clip(String line){
+            line = line.replace('\t', ' ');
+            return line.length() > MAX_CHARS ? line.substring(0, MAX_CHARS)+"..." : line;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.CountListener;
+import grep.Grep.GrepException;
+import grep.Grep.GrepListener;
+import grep.Grep.GrepResult;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes search results to a Writer as each file's results arrive, so output
+ * starts immediately and nothing but the current file's results is held in
+ * memory.  Pass a ResultWriter to Grep.grep, or Grep.count to write only the
+ * number of matches in each file, as the listener; it may be called from
+ * several search threads at once, and writes each file's results together.
+ * Failures to write are thrown as GrepExceptions, which end the search.
+ */
+public class ResultWriter implements GrepListener, CountListener {
+    /**
+     * The layout of the written results.
+     */
+    public enum Format {
+        /** grep's path:line:text, with context lines as path-line-text and -- between groups. */
+        GREP,
+        /** Each file's name followed by its indented matches, as Grep.toText has always written. */
+        TEXT,
+        /** JSON Lines, one object per match with its context, and which pattern it matched when searching for several. */
+        JSON
+    }
+
+    private final Writer out;
+    private final Format format;
+    private final int context;
+    private boolean filesOnly = false;
+    private boolean written = false; // whether any match has been written, for GREP's separators
+
+    /**
+     * @param context number of lines of context to write before and after each match
+     */
+    public ResultWriter(Writer w, Format fmt, int context){
+        if(context < 0)
+            throw new GrepException("Invalid context, must be non-negative.");
+        out = w;
+        format = fmt;
+        this.context = context;
+    }
+
+    /**
+     * Writes to the stream in the default charset.
+     */
+    public ResultWriter(OutputStream os, Format fmt, int context){
+        this(new BufferedWriter(new OutputStreamWriter(os, LineReader.CHARSET)), fmt, context);
+    }
+
+    /**
+     * Writes only the name of each file with matches, like grep -l, rather than
+     * the matches themselves.
+     */
+    public ResultWriter setFilesOnly(boolean files){
+        filesOnly = files;
+        return this;
+    }
+
+    @Override
+    public synchronized void matched(File file, ArrayList<GrepResult> results){
+        try {
+            if(filesOnly)
+                writeFile(file, null);
+            else
+                write(file, results);
+            out.flush();
+        } catch (IOException e) {
+            throw new GrepException("Failed to write results.", e);
+        }
+    }
+
+    @Override
+    public synchronized void counted(File file, int count){
+        try {
+            writeFile(file, count);
+            out.flush();
+        } catch (IOException e) {
+            throw new GrepException("Failed to write results.", e);
+        }
+    }
+
+    /**
+     * Writes the results in one file, without flushing.
+     */
+    public synchronized void write(File file, List<GrepResult> results) throws IOException {
+        switch(format){
+        case GREP:
+            writeGrep(file, results);
+            break;
+        case TEXT:
+            writeText(file, results);
+            break;
+        case JSON:
+            writeJson(file, results);
+            break;
+        }
+    }
+
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Writes a file's name, and its number of matches if it's given.
+     */
+    private void writeFile(File file, Integer count) throws IOException {
+        if(format == Format.JSON)
+            out.write("{\"path\":"+jsonString(file.getPath())+(count == null ? "" : ",\"count\":"+count)+"}\n");
+        else
+            out.write(file.getPath()+(count == null ? "" : ":"+count)+"\n");
+    }
+
+    private void writeGrep(File file, List<GrepResult> results) throws IOException {
+        String path = file.getPath();
+        int printed = 0; // the last line number written
+        List<String> pending = null; // after context of the previous match, not yet written
+        int pendingStart = 0;
+        for(GrepResult gr : results){
+            if(gr.isBinary()){
+                out.write("Binary file "+path+" matches\n");
+                continue;
+            }
+            if(gr.isTimedOut()){
+                out.write("Timed out matching "+path+" line "+gr.getLineNumber()+"\n");
+                continue;
+            }
+            int ln = gr.getLineNumber();
+            printed = writeContext(path, pending, pendingStart, ln, printed);
+            List<String> before = gr.getLinesBefore(context);
+            int first = ln-before.size();
+            if(context > 0 && (printed > 0 ? first > printed+1 : written))
+                out.write("--\n");
+            writeContext(path, before, first, ln, printed);
+            out.write(path+":"+ln+":"+gr.getLine()+"\n");
+            printed = ln;
+            written = true;
+            pending = gr.getLinesAfter(context);
+            pendingStart = ln+1;
+        }
+        writeContext(path, pending, pendingStart, Integer.MAX_VALUE, printed);
+    }
+
+    /**
+     * Writes the lines, numbered from start, that fall after the last written
+     * line and before the given end.
+     * @return the last line number written
+     */
+    private int writeContext(String path, List<String> lines, int start, int end, int printed) throws IOException {
+        if(lines == null)
+            return printed;
+        int ln = start;
+        for(String line : lines){
+            if(ln >= end)
+                break;
+            if(ln > printed){
+                out.write(path+"-"+ln+"-"+line+"\n");
+                printed = ln;
+            }
+            ln++;
+        }
+        return printed;
+    }
+
+    private void writeText(File file, List<GrepResult> results) throws IOException {
+        out.write(file.getName()+"\n");
+        for(GrepResult gr : results){
+            if(gr.isBinary()){
+                out.write(" Binary file matches\n");
+                continue;
+            }
+            if(gr.isTimedOut()){
+                out.write(" Timed out on Line "+gr.getLineNumber()+"\n");
+                continue;
+            }
+            out.write(" Match on Line "+gr.getLineNumber()+":\n");
+            for(String ln : gr.getLinesBefore(context))
+                out.write("   "+ln+"\n");
+            out.write(" * "+gr.getLine()+"\n");
+            for(String ln : gr.getLinesAfter(context))
+                out.write("   "+ln+"\n");
+        }
+    }
+
+    private void writeJson(File file, List<GrepResult> results) throws IOException {
+        String path = jsonString(file.getPath());
+        for(GrepResult gr : results){
+            if(gr.isBinary()){
+                out.write("{\"path\":"+path+",\"binary\":true}\n");
+                continue;
+            }
+            if(gr.isTimedOut()){
+                out.write("{\"path\":"+path+",\"line\":"+gr.getLineNumber()+",\"timedOut\":true}\n");
+                continue;
+            }
+            out.write("{\"path\":"+path+",\"line\":"+gr.getLineNumber()+",\"text\":"+jsonString(gr.getLine()));
+            if(gr.getMatchedPattern() != null)
+                out.write(",\"pattern\":"+jsonString(gr.getMatchedPattern()));
+            if(context > 0){
+                out.write(",\"before\":"+jsonArray(gr.getLinesBefore(context)));
+                out.write(",\"after\":"+jsonArray(gr.getLinesAfter(context)));
+            }
+            out.write("}\n");
+        }
+    }
+
+    private static String jsonArray(List<String> lines){
+        StringBuilder sb = new StringBuilder("[");
+        for(String line : lines){
+            if(sb.length() > 1)
+                sb.append(',');
+            sb.append(jsonString(line));
+        }
+        return sb.append(']').toString();
+    }
+
+    private static String jsonString(String str){
+        StringBuilder sb = new StringBuilder(str.length()+2);
+        sb.append('"');
+        for(int i = 0; i < str.length(); i++){
+            char c = str.charAt(i);
+            switch(c){
+            case '"': sb.append("\\\""); break;
+            case '\\': sb.append("\\\\"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\t': sb.append("\\t"); break;
+            default:
+                if(c < 0x20)
+                    sb.append(String.format("\\u%04x", (int)c));
+                else
+                    sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
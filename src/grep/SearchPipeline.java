@@ -0,0 +1,294 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.GrepStopException;
+import grep.Grep.Options;
+import grep.Grep.Search;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a search in three stages, each on threads of its own, linked by
+ * bounded queues: a lister walks the directories and queues the files to
+ * search, readers read each file's contents and queue them, and as many
+ * matchers as the search's parallelism search the contents.  A full queue
+ * blocks the stage feeding it, so listing and reading stay only a little ahead
+ * of matching and memory stays bounded, while waiting on slow or networked
+ * disks overlaps with matching.  Files larger than {@link #MAX_READ} bytes,
+ * and those the result cache has current results for, aren't read ahead; the
+ * matchers read them as usual, but never split them, since each matcher
+ * splitting a file would start a ForkJoinPool of its own.
+ *
+ * The lister and readers spend their time waiting on I/O, so on Java 21 and
+ * later they're virtual threads, which makes many readers cheap, and ordinary
+ * daemon threads before that.
+ */
+class SearchPipeline {
+    static final int MAX_READ = 1024*1024;
+    private static final int QUEUED_FILES = 1024;
+    private static final int QUEUED_READS_PER_MATCHER = 2;
+    private static final long POLL_MILLIS = 100;
+    private static final File NO_MORE_FILES = new File("");
+    private static final Read NO_MORE_READS = new Read(null);
+    private static final ThreadFactory IO_THREADS = ioThreads();
+
+    private final Pattern pattern;
+    private final FileFilter ff;
+    private final boolean recursive;
+    private final Options opts;
+    private final Search search;
+    private final BlockingQueue<File> files = new ArrayBlockingQueue<>(QUEUED_FILES);
+    private final BlockingQueue<Read> reads;
+    private final AtomicInteger readersLeft;
+    private final ArrayList<Thread> ioThreads = new ArrayList<>();
+    private final ArrayList<Thread> threads = new ArrayList<>();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * A file, and its contents if they were read ahead, with the cache stamp
+     * taken before they were read.
+     */
+    private static class Read {
+        final File file;
+        LineReader contents;
+        ResultCache.Entry stamp;
+
+        Read(File f){
+            file = f;
+        }
+    }
+
+    private SearchPipeline(Pattern p, FileFilter filter, boolean rec, Options o, Search s){
+        pattern = p;
+        ff = filter;
+        recursive = rec;
+        opts = o;
+        search = s;
+        reads = new ArrayBlockingQueue<>(QUEUED_READS_PER_MATCHER*opts.parallelism);
+        readersLeft = new AtomicInteger(opts.readers);
+    }
+
+    /**
+     * Searches the given file or directory, or if candidates isn't null
+     * exactly those files, returning once every file has been searched.
+     */
+    static void run(final File root, final List<File> candidates, Pattern pattern, FileFilter ff, boolean recursive,
+            Options opts, Search search){
+        final SearchPipeline p = new SearchPipeline(pattern, ff, recursive, opts, search);
+        p.ioThreads.add(p.thread(IO_THREADS, new Stage() {
+            @Override
+            public void run() throws InterruptedException {
+                p.list(root, candidates);
+            }
+        }));
+        for(int i = 0; i < opts.readers; i++){
+            p.ioThreads.add(p.thread(IO_THREADS, new Stage() {
+                @Override
+                public void run() throws InterruptedException {
+                    p.read();
+                }
+            }));
+        }
+        p.threads.addAll(p.ioThreads);
+        ThreadFactory matchers = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r){
+                Thread t = new Thread(r, "jGrep match");
+                t.setDaemon(true);
+                return t;
+            }
+        };
+        for(int i = 0; i < opts.parallelism; i++){
+            p.threads.add(p.thread(matchers, new Stage() {
+                @Override
+                public void run() throws InterruptedException {
+                    p.match();
+                }
+            }));
+        }
+        p.runAll();
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private Thread thread(ThreadFactory factory, final Stage stage){
+        return factory.newThread(new Runnable() {
+            @Override
+            public void run(){
+                try {
+                    stage.run();
+                } catch (InterruptedException e) {
+                    // another stage failed
+                } catch (RuntimeException e) {
+                    fail(e);
+                } catch (Error e) { // the other stages would wait for this one forever
+                    fail(e);
+                    throw e;
+                }
+            }
+        });
+    }
+
+    /**
+     * Records the first failure of any stage, including the search being
+     * cancelled, and stops the other stages: the lister and readers may be
+     * blocked on a full queue, so they're interrupted, and the matchers notice
+     * the failure while waiting for files.
+     */
+    private void fail(Throwable e){
+        if(!failure.compareAndSet(null, e))
+            return;
+        for(Thread t : ioThreads)
+            t.interrupt();
+    }
+
+    private void runAll(){
+        for(Thread t : threads)
+            t.start();
+        try {
+            for(Thread t : threads)
+                t.join();
+        } catch (InterruptedException e) {
+            fail(new GrepStopException("Search was interrupted."));
+            Thread.currentThread().interrupt();
+        }
+        Throwable e = failure.get();
+        if(e instanceof Error)
+            throw (Error)e;
+        if(e != null)
+            throw (RuntimeException)e;
+    }
+
+    private void list(File root, List<File> candidates) throws InterruptedException {
+        if(candidates != null){
+            for(File f : candidates)
+                files.put(f);
+        } else {
+            walk(root);
+        }
+        for(int i = 0; i < opts.readers; i++)
+            files.put(NO_MORE_FILES);
+    }
+
+    private void walk(File file) throws InterruptedException {
+        if(!file.isDirectory()){
+            files.put(file);
+            return;
+        }
+        Grep.checkStopped(search);
+        File[] list = Grep.list(file, ff, search);
+        if(list == null) // just in case there's an IO error, or the search is truncated
+            return;
+        for(File f : list){
+            if(f.isDirectory()){
+                if(recursive)
+                    walk(f);
+            } else {
+                files.put(f);
+            }
+        }
+    }
+
+    private void read() throws InterruptedException {
+        while(true){
+            File f = files.take();
+            if(f == NO_MORE_FILES)
+                break;
+            Grep.checkStopped(search);
+            reads.put(readAhead(f));
+        }
+        if(readersLeft.decrementAndGet() == 0){
+            for(int i = 0; i < opts.parallelism; i++)
+                reads.put(NO_MORE_READS);
+        }
+    }
+
+    /**
+     * Reads a file's contents, unless it should be left to the matcher because
+     * it's large, its results are cached, or reading it failed, in which case
+     * the matcher will report the failure.  The file is stamped for the cache
+     * before it's read, so if it changes meanwhile the results of what was read
+     * are cached as stale.
+     */
+    private Read readAhead(File f){
+        Read r = new Read(f);
+        if(search.isTruncated() || f.length() > MAX_READ)
+            return r;
+        if(opts.cache != null){
+            r.stamp = opts.cache.stamp(f, pattern, opts.binaryFiles);
+            if(r.stamp == null || opts.cache.isCurrent(r.stamp))
+                return r;
+        }
+        long start = System.nanoTime();
+        try {
+            byte[] contents = Files.readAllBytes(f.toPath());
+            r.contents = new LineReader(contents, System.nanoTime()-start);
+        } catch (IOException e) {
+            // left to the matcher
+        }
+        return r;
+    }
+
+    private void match() throws InterruptedException {
+        while(failure.get() == null){
+            Read r = reads.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if(r == NO_MORE_READS)
+                return;
+            if(r != null)
+                Grep.searchFile(r.file, r.contents, r.stamp, false, pattern, opts, search); // the matchers are the parallelism
+        }
+    }
+
+    /**
+     * Returns a factory of virtual threads if this Java has them, or else of
+     * daemon threads.
+     */
+    private static ThreadFactory ioThreads(){
+        try {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            Object virtual = Thread.class.getMethod("ofVirtual").invoke(null);
+            virtual = builder.getMethod("name", String.class).invoke(virtual, "jGrep io");
+            return (ThreadFactory)builder.getMethod("factory").invoke(virtual);
+        } catch (ReflectiveOperationException e) {
+            return new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r){
+                    Thread t = new Thread(r, "jGrep io");
+                    t.setDaemon(true);
+                    return t;
+                }
+            };
+        }
+    }
+}
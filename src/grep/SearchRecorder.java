@@ -0,0 +1,61 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.util.regex.Pattern;
+
+/**
+ * Reports searches and the files they search to a profiler.  This base class
+ * reports nothing; when running on a JVM with the JDK Flight Recorder, and the
+ * Java 11 JfrRecorder subclass was built alongside jGrep, searches are reported
+ * as JFR events instead.
+ */
+class SearchRecorder {
+    static final SearchRecorder INSTANCE = load();
+
+    private static SearchRecorder load(){
+        try {
+            Class.forName("jdk.jfr.FlightRecorder");
+            return (SearchRecorder)Class.forName("grep.JfrRecorder").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return new SearchRecorder();
+        }
+    }
+
+    /**
+     * Called as a search starts, returning a token to pass to searchFinished.
+     */
+    Object searchStarted(){
+        return null;
+    }
+
+    void searchFinished(Object token, File root, Pattern pattern, SearchStats stats){
+    }
+
+    /**
+     * Called as a file starts being searched, returning a token to pass to fileFinished.
+     */
+    Object fileStarted(){
+        return null;
+    }
+
+    void fileFinished(Object token, File file, long bytes, long lines, int matches){
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ * 
+ * This file is part of jGrep.
+ * 
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ * 
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ * 
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics about one search, updated as it runs.  Phase times are summed
+ * over every search thread, so in a parallel search they can add up to more
+ * than the elapsed time.  Splitting lines and matching them are interleaved
+ * line by line, too finely to time separately, so they're reported together
+ * as scanning.
+ */
+public class SearchStats {
+    private static final int SLOWEST_FILES = 10;
+    private static final Comparator<FileTiming> BY_TIME = new Comparator<FileTiming>() {
+        @Override
+        public int compare(FileTiming a, FileTiming b){
+            return Long.compare(a.nanos, b.nanos);
+        }
+    };
+
+    private final long startNanos = System.nanoTime();
+    private volatile long elapsedNanos = -1;
+    private final AtomicInteger filesSearched = new AtomicInteger();
+    private final AtomicInteger filesSkipped = new AtomicInteger();
+    private final AtomicInteger filesCached = new AtomicInteger();
+    private final AtomicInteger filesMatched = new AtomicInteger();
+    private final AtomicInteger matches = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong linesScanned = new AtomicLong();
+    private final AtomicLong linesTimedOut = new AtomicLong();
+    private final AtomicLong listNanos = new AtomicLong();
+    private final AtomicLong indexNanos = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private final AtomicLong scanNanos = new AtomicLong();
+    // the slowest files so far, the fastest of them first
+    private final PriorityQueue<FileTiming> slowest = new PriorityQueue<>(SLOWEST_FILES+1, BY_TIME);
+
+    /**
+     * The time taken to search one file.
+     */
+    public static class FileTiming {
+        private final File file;
+        private final long nanos;
+        private final long bytes;
+
+        FileTiming(File f, long ns, long b){
+            file = f;
+            nanos = ns;
+            bytes = b;
+        }
+
+        public File getFile(){
+            return file;
+        }
+
+        public long getNanos(){
+            return nanos;
+        }
+
+        public long getBytes(){
+            return bytes;
+        }
+
+        @Override
+        public String toString(){
+            return file+" ("+formatBytes(bytes)+" in "+formatNanos(nanos)+")";
+        }
+    }
+
+    /** Files searched, skipped or cached. */
+    public int getFilesVisited(){
+        return filesSearched.get()+filesSkipped.get()+filesCached.get();
+    }
+
+    public int getFilesSearched(){
+        return filesSearched.get();
+    }
+
+    /** Files not searched because they were binary or could not be read. */
+    public int getFilesSkipped(){
+        return filesSkipped.get();
+    }
+
+    /** Files not searched because their cached results were still current. */
+    public int getFilesCached(){
+        return filesCached.get();
+    }
+
+    public int getFilesMatched(){
+        return filesMatched.get();
+    }
+
+    public int getMatches(){
+        return matches.get();
+    }
+
+    public long getBytesRead(){
+        return bytesRead.get();
+    }
+
+    public long getLinesScanned(){
+        return linesScanned.get();
+    }
+
+    /** Lines given up on because matching them took longer than the line timeout. */
+    public long getLinesTimedOut(){
+        return linesTimedOut.get();
+    }
+
+    /** Time spent listing and filtering directories. */
+    public long getListNanos(){
+        return listNanos.get();
+    }
+
+    /** Time spent updating and querying the index, if one was used. */
+    public long getIndexNanos(){
+        return indexNanos.get();
+    }
+
+    /** Time spent reading files. */
+    public long getReadNanos(){
+        return readNanos.get();
+    }
+
+    /** Time spent splitting files into lines and matching the lines. */
+    public long getScanNanos(){
+        return scanNanos.get();
+    }
+
+    /** Wall clock time of the whole search, so far if it's still running. */
+    public long getElapsedNanos(){
+        long elapsed = elapsedNanos;
+        return elapsed < 0 ? System.nanoTime()-startNanos : elapsed;
+    }
+
+    /** The files which took longest to search, slowest first. */
+    public List<FileTiming> getSlowestFiles(){
+        ArrayList<FileTiming> res;
+        synchronized(slowest){
+            res = new ArrayList<>(slowest);
+        }
+        Collections.sort(res, Collections.reverseOrder(BY_TIME));
+        return res;
+    }
+
+    /**
+     * A one line summary of the amount read and the rate, e.g. "1.2 GB in 3.4 s, 350.0 MB/s".
+     */
+    public String getSummary(){
+        long nanos = getElapsedNanos();
+        double rate = nanos == 0 ? 0 : getBytesRead()*1e9/nanos;
+        return formatBytes(getBytesRead())+" in "+formatNanos(nanos)+", "+formatBytes(rate)+"/s";
+    }
+
+    @Override
+    public String toString(){
+        StringBuilder sb = new StringBuilder(getSummary()).append('\n');
+        sb.append("Files: ").append(getFilesVisited()).append(" visited, ").append(getFilesSkipped())
+            .append(" skipped, ").append(getFilesCached()).append(" cached, ").append(getFilesMatched()).append(" matched\n");
+        sb.append("Lines: ").append(getLinesScanned()).append(" scanned, ").append(getMatches()).append(" matched, ")
+            .append(getLinesTimedOut()).append(" timed out\n");
+        sb.append("Time: ").append(formatNanos(getListNanos())).append(" listing, ")
+            .append(formatNanos(getIndexNanos())).append(" indexing, ")
+            .append(formatNanos(getReadNanos())).append(" reading, ")
+            .append(formatNanos(getScanNanos())).append(" scanning\n");
+        sb.append("Slowest files:\n");
+        for(FileTiming t : getSlowestFiles()){
+            sb.append("  ").append(t).append('\n');
+        }
+        return sb.toString();
+    }
+
+    void fileSearched(File file, long nanos, long bytes, long read, long lines, int found){
+        filesSearched.incrementAndGet();
+        bytesRead.addAndGet(bytes);
+        linesScanned.addAndGet(lines);
+        readNanos.addAndGet(read);
+        scanNanos.addAndGet(nanos-read);
+        if(found > 0){
+            filesMatched.incrementAndGet();
+            matches.addAndGet(found);
+        }
+        synchronized(slowest){
+            if(slowest.size() < SLOWEST_FILES || slowest.peek().nanos < nanos){
+                slowest.add(new FileTiming(file, nanos, bytes));
+                if(slowest.size() > SLOWEST_FILES)
+                    slowest.poll();
+            }
+        }
+    }
+
+    void fileCached(int found){
+        filesCached.incrementAndGet();
+        if(found > 0){
+            filesMatched.incrementAndGet();
+            matches.addAndGet(found);
+        }
+    }
+
+    void lineTimedOut(){
+        linesTimedOut.incrementAndGet();
+    }
+
+    void fileSkipped(){
+        filesSkipped.incrementAndGet();
+    }
+
+    void listed(long nanos){
+        listNanos.addAndGet(nanos);
+    }
+
+    void indexed(long nanos){
+        indexNanos.addAndGet(nanos);
+    }
+
+    void finished(){
+        elapsedNanos = System.nanoTime()-startNanos;
+    }
+
+    static String formatBytes(double bytes){
+        String[] units = {"B", "KB", "MB", "GB", "TB"};
+        int unit = 0;
+        while(bytes >= 1024 && unit < units.length-1){
+            bytes /= 1024;
+            unit++;
+        }
+        return unit == 0 ? (long)bytes+" B" : String.format(Locale.ROOT, "%.1f %s", bytes, units[unit]);
+    }
+
+    static String formatNanos(long nanos){
+        if(nanos < 1000000000L)
+            return nanos/1000000+" ms";
+        return String.format(Locale.ROOT, "%.1f s", nanos/1e9);
+    }
+}
@@ -0,0 +1,576 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent index of the trigrams (three byte sequences) in every file under
+ * a directory, used to find the files that could possibly match a pattern
+ * without reading any of the others.  Trigrams are indexed with ASCII letters
+ * folded to lower case, so the index serves case sensitive and insensitive
+ * searches alike.
+ *
+ * The index is brought up to date incrementally: the directory tree is walked
+ * and only files whose size or modification time changed since the last update
+ * are read.  Their trigrams are written to a new segment, and once there are
+ * too many small segments, or too many indexed files have since changed, the
+ * segments are rewritten without the stale files.  Files too large to index
+ * are always candidates.
+ *
+ * The index for a directory is stored in a directory of its own, usually
+ * {@link #defaultDir(File, File)}.
+ */
+public class TrigramIndex {
+    private static final int MAGIC = 0x4a475449; // JGTI
+    private static final int VERSION = 1;
+    private static final String FILES = "files.dat";
+    static final long MAX_INDEXED_SIZE = 128L*1024*1024;
+    private static final int SEGMENT_POSTINGS = 8*1024*1024;
+    private static final int MAX_SMALL_SEGMENTS = 8;
+    private static final int BUFFER_SIZE = 64*1024;
+    // objects to synchronize updates of each index directory on, by canonical path
+    private static final ConcurrentHashMap<String,Object> UPDATING = new ConcurrentHashMap<>();
+
+    private final File root;
+    private final File dir;
+    private final ArrayList<Entry> files = new ArrayList<>(); // by id
+    private final ArrayList<Segment> segments = new ArrayList<>();
+    private int nextSegment = 0;
+    private int dead = 0;
+
+    private TrigramIndex(File r, File d){
+        root = r;
+        dir = d;
+    }
+
+    /**
+     * Returns a directory under base to store the index of the given root in,
+     * named after the root's canonical path.
+     */
+    public static File defaultDir(File base, File root) throws IOException {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] hash = md.digest(root.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for(int i = 0; i < 8; i++){
+                name.append(String.format("%02x", hash[i]));
+            }
+            return new File(base, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Opens the index of the given root stored in dir, or an empty index if
+     * there isn't one there yet.  Call {@link #update()} before querying it.
+     */
+    public static TrigramIndex open(File root, File dir) throws IOException {
+        TrigramIndex index = new TrigramIndex(root, dir);
+        index.load();
+        return index;
+    }
+
+    /**
+     * Reads the index stored in dir, replacing anything read before, or leaves
+     * it empty if there isn't one there or it can't be used.
+     */
+    private void load() throws IOException {
+        clear();
+        File table = new File(dir, FILES);
+        if(!table.exists())
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(table)))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.getCanonicalPath())){
+                clear(); // stale or foreign, rebuild it
+                return;
+            }
+            nextSegment = in.readInt();
+            int segs = in.readInt();
+            for(int i = 0; i < segs; i++){
+                segments.add(new Segment(new File(dir, in.readUTF())));
+            }
+            int count = in.readInt();
+            for(int i = 0; i < count; i++){
+                Entry e = new Entry(in.readUTF(), in.readLong(), in.readLong());
+                e.indexed = in.readBoolean();
+                e.live = in.readBoolean();
+                if(!e.live)
+                    dead++;
+                files.add(e);
+            }
+        } catch (FileNotFoundException e) { // a segment is missing
+            clear();
+        }
+    }
+
+    private void clear(){
+        files.clear();
+        segments.clear();
+        nextSegment = 0;
+        dead = 0;
+    }
+
+    /**
+     * Walks the root directory and indexes every file added or changed since the
+     * index was last updated.
+     */
+    public void update() throws IOException {
+        if(!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Could not create index directory "+dir);
+        // file locks are held by the whole JVM, so updates within it take turns first
+        synchronized(lockFor(dir)){
+            try (FileChannel lock = FileChannel.open(new File(dir, "lock").toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                lock.lock(); // released when the channel is closed
+                load(); // another update may have finished since this was opened
+                refresh();
+            }
+        }
+    }
+
+    private static Object lockFor(File dir) throws IOException {
+        Object lock = new Object();
+        Object existing = UPDATING.putIfAbsent(dir.getCanonicalPath(), lock);
+        return existing == null ? lock : existing;
+    }
+
+    /**
+     * Indexes the files changed since the index was loaded, holding the lock.
+     */
+    private void refresh() throws IOException {
+        final HashMap<String,Integer> known = new HashMap<>();
+        for(int i = 0; i < files.size(); i++){
+            if(files.get(i).live)
+                known.put(files.get(i).path, i);
+        }
+        final ArrayList<Entry> changed = new ArrayList<>();
+        final Path rootPath = root.getCanonicalFile().toPath();
+        final Path indexPath = dir.getCanonicalFile().toPath();
+        // follow links as searches without the index do; loops are reported to visitFileFailed
+        Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                if(d.equals(indexPath)) // don't index the index
+                    return FileVisitResult.SKIP_SUBTREE;
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if(!attrs.isRegularFile())
+                    return FileVisitResult.CONTINUE;
+                String path = rootPath.relativize(file).toString();
+                long mtime = attrs.lastModifiedTime().toMillis();
+                Integer id = known.remove(path);
+                if(id != null){
+                    Entry e = files.get(id);
+                    if(e.size == attrs.size() && e.mtime == mtime)
+                        return FileVisitResult.CONTINUE;
+                    e.live = false;
+                    dead++;
+                }
+                changed.add(new Entry(path, attrs.size(), mtime));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        for(int id : known.values()){ // deleted
+            files.get(id).live = false;
+            dead++;
+        }
+        if(changed.isEmpty() && known.isEmpty())
+            return;
+
+        Indexer indexer = new Indexer();
+        for(Entry e : changed){
+            int id = files.size();
+            files.add(e);
+            e.indexed = e.size <= MAX_INDEXED_SIZE && indexer.add(id, new File(root, e.path));
+            if(indexer.count >= SEGMENT_POSTINGS)
+                segments.add(indexer.write(newSegmentFile()));
+        }
+        if(indexer.count > 0)
+            segments.add(indexer.write(newSegmentFile()));
+        int small = 0;
+        for(Segment seg : segments){
+            if(seg.count < SEGMENT_POSTINGS/4)
+                small++;
+        }
+        if(small > MAX_SMALL_SEGMENTS || dead > files.size()/2)
+            compact();
+        else
+            save();
+    }
+
+    /**
+     * Returns the files that could contain a match of the given pattern: every
+     * file containing all the trigrams of the pattern's required literals, and
+     * every file too large to have been indexed.
+     */
+    public List<File> candidates(Pattern pattern) throws IOException {
+        ArrayList<Integer> trigrams = new ArrayList<>();
+        for(String lit : RegexLiterals.required(pattern)){
+            byte[] bytes = lit.getBytes(LineReader.CHARSET);
+            int t = 0;
+            for(int i = 0; i < bytes.length; i++){
+                t = ((t << 8) | fold(bytes[i])) & 0xffffff;
+                if(i >= 2)
+                    trigrams.add(t);
+            }
+        }
+        boolean[] hit = new boolean[files.size()];
+        if(trigrams.isEmpty()){
+            Arrays.fill(hit, true);
+        } else {
+            for(Segment seg : segments){
+                int[] ids = null;
+                for(int t : trigrams){
+                    int[] posting = seg.postings(t);
+                    ids = ids == null ? posting : intersect(ids, posting);
+                    if(ids.length == 0)
+                        break;
+                }
+                for(int id : ids){
+                    hit[id] = true;
+                }
+            }
+        }
+        ArrayList<File> res = new ArrayList<>();
+        for(int i = 0; i < files.size(); i++){
+            Entry e = files.get(i);
+            if(e.live && (hit[i] || !e.indexed))
+                res.add(new File(root, e.path));
+        }
+        return res;
+    }
+
+    private static int fold(byte b){
+        return b >= 'A' && b <= 'Z' ? b+('a'-'A') : b & 0xff;
+    }
+
+    private static int[] intersect(int[] a, int[] b){
+        int[] res = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for(int i = 0, j = 0; i < a.length && j < b.length;){
+            if(a[i] < b[j])
+                i++;
+            else if(a[i] > b[j])
+                j++;
+            else {
+                res[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    private File newSegmentFile(){
+        return new File(dir, "seg-"+(nextSegment++)+".dat");
+    }
+
+    /**
+     * Rewrites every segment, dropping the files that have since changed or been
+     * deleted, renumbering the rest, and merging small segments together.
+     */
+    private void compact() throws IOException {
+        int[] remap = new int[files.size()];
+        ArrayList<Entry> live = new ArrayList<>();
+        for(int i = 0; i < files.size(); i++){
+            Entry e = files.get(i);
+            remap[i] = e.live ? live.size() : -1;
+            if(e.live)
+                live.add(e);
+        }
+        ArrayList<Segment> old = new ArrayList<>(segments);
+        segments.clear();
+        Indexer merged = new Indexer();
+        for(Segment seg : old){
+            byte[] data = seg.data();
+            for(int i = 0; i < seg.trigrams.length; i++){
+                for(int id : Segment.decode(data, (int)seg.offsets[i], seg.lengths[i])){
+                    if(remap[id] >= 0)
+                        merged.post(seg.trigrams[i], remap[id]);
+                }
+            }
+            if(merged.count >= SEGMENT_POSTINGS)
+                segments.add(merged.write(newSegmentFile()));
+        }
+        if(merged.count > 0)
+            segments.add(merged.write(newSegmentFile()));
+        files.clear();
+        files.addAll(live);
+        dead = 0;
+        save();
+        for(Segment seg : old){
+            seg.file.delete();
+        }
+    }
+
+    private void save() throws IOException {
+        File tmp = new File(dir, FILES+".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.getCanonicalPath());
+            out.writeInt(nextSegment);
+            out.writeInt(segments.size());
+            for(Segment seg : segments){
+                out.writeUTF(seg.file.getName());
+            }
+            out.writeInt(files.size());
+            for(Entry e : files){
+                out.writeUTF(e.path);
+                out.writeLong(e.size);
+                out.writeLong(e.mtime);
+                out.writeBoolean(e.indexed);
+                out.writeBoolean(e.live);
+            }
+        }
+        Files.move(tmp.toPath(), new File(dir, FILES).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        final String path;
+        final long size;
+        final long mtime;
+        boolean indexed = false;
+        boolean live = true;
+
+        Entry(String p, long s, long m){
+            path = p;
+            size = s;
+            mtime = m;
+        }
+    }
+
+    /**
+     * Collects the postings of a batch of files in memory, in increasing id
+     * order, and writes them out as a segment.
+     */
+    private static class Indexer {
+        final HashMap<Integer,int[]> postings = new HashMap<>(); // trigram -> count followed by ids
+        int count = 0;
+        private final long[] seen = new long[(1 << 24)/64];
+        private final byte[] buf = new byte[BUFFER_SIZE];
+
+        /**
+         * Reads a file and records its trigrams, returning false if it could not be read.
+         */
+        boolean add(int id, File file){
+            int[] found = new int[1024];
+            int n = 0;
+            try (FileInputStream in = new FileInputStream(file)) {
+                int t = 0;
+                long read = 0;
+                int r;
+                while((r = in.read(buf)) > 0){
+                    for(int i = 0; i < r; i++, read++){
+                        t = ((t << 8) | fold(buf[i])) & 0xffffff;
+                        if(read >= 2 && (seen[t >>> 6] & (1L << t)) == 0){
+                            seen[t >>> 6] |= 1L << t;
+                            if(n == found.length)
+                                found = Arrays.copyOf(found, n*2);
+                            found[n++] = t;
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                return false;
+            } finally {
+                for(int i = 0; i < n; i++){
+                    seen[found[i] >>> 6] = 0;
+                }
+            }
+            for(int i = 0; i < n; i++){
+                post(found[i], id);
+            }
+            return true;
+        }
+
+        void post(int trigram, int id){
+            int[] list = postings.get(trigram);
+            if(list == null){
+                list = new int[4];
+                postings.put(trigram, list);
+            } else if(list[0]+1 == list.length){
+                list = Arrays.copyOf(list, list.length*2);
+                postings.put(trigram, list);
+            }
+            list[++list[0]] = id;
+            count++;
+        }
+
+        /**
+         * Writes the collected postings to the given file and resets the indexer.
+         * Each trigram's ids are delta encoded as variable length integers.
+         */
+        Segment write(File file) throws IOException {
+            int[] trigrams = new int[postings.size()];
+            int n = 0;
+            for(int t : postings.keySet()){
+                trigrams[n++] = t;
+            }
+            Arrays.sort(trigrams);
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            long[] offsets = new long[trigrams.length];
+            int[] lengths = new int[trigrams.length];
+            for(int i = 0; i < trigrams.length; i++){
+                int[] list = postings.get(trigrams[i]);
+                offsets[i] = data.size();
+                int prev = 0;
+                for(int j = 1; j <= list[0]; j++){
+                    int delta = list[j]-prev;
+                    prev = list[j];
+                    while((delta & ~0x7f) != 0){
+                        data.write((delta & 0x7f) | 0x80);
+                        delta >>>= 7;
+                    }
+                    data.write(delta);
+                }
+                lengths[i] = data.size()-(int)offsets[i];
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(trigrams.length);
+                for(int i = 0; i < trigrams.length; i++){
+                    out.writeInt(trigrams[i]);
+                    out.writeLong(offsets[i]);
+                    out.writeInt(lengths[i]);
+                }
+                data.writeTo(out);
+            }
+            postings.clear();
+            count = 0;
+            return new Segment(file);
+        }
+    }
+
+    /**
+     * An immutable segment file, whose trigram table is kept in memory and whose
+     * postings are read as they're needed.
+     */
+    private static class Segment {
+        final File file;
+        final int count;
+        final int[] trigrams;
+        final long[] offsets;
+        final int[] lengths;
+        final long dataStart;
+
+        Segment(File f) throws IOException {
+            file = f;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                if(in.readInt() != MAGIC || in.readInt() != VERSION)
+                    throw new IOException("Corrupt index segment "+f);
+                count = in.readInt();
+                int size = in.readInt();
+                trigrams = new int[size];
+                offsets = new long[size];
+                lengths = new int[size];
+                for(int i = 0; i < size; i++){
+                    trigrams[i] = in.readInt();
+                    offsets[i] = in.readLong();
+                    lengths[i] = in.readInt();
+                }
+                dataStart = 16L + 16L*size;
+            }
+        }
+
+        int[] postings(int trigram) throws IOException {
+            int i = Arrays.binarySearch(trigrams, trigram);
+            if(i < 0)
+                return new int[0];
+            return decode(read(dataStart+offsets[i], lengths[i]), 0, lengths[i]);
+        }
+
+        /** Reads the postings of every trigram. */
+        byte[] data() throws IOException {
+            return read(dataStart, (int)(file.length()-dataStart));
+        }
+
+        private byte[] read(long pos, int length) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                while(buf.hasRemaining()){
+                    if(ch.read(buf, pos+buf.position()) < 0)
+                        throw new IOException("Corrupt index segment "+file);
+                }
+            }
+            return buf.array();
+        }
+
+        static int[] decode(byte[] data, int off, int len){
+            int[] ids = new int[len];
+            int n = 0;
+            int prev = 0;
+            for(int p = off; p < off+len;){
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[p++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while((b & 0x80) != 0);
+                prev += delta;
+                ids[n++] = prev;
+            }
+            return Arrays.copyOf(ids, n);
+        }
+    }
+}
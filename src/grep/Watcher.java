@@ -0,0 +1,293 @@
+/*
+ * Copyright 2010 Michael Diamond - http://www.DigitalGemstones.com
+ *
+ * This file is part of jGrep.
+ *
+ *  jGrep is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  jGrep is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with jGrep.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package grep;
+
+import grep.Grep.FileTail;
+import grep.Grep.GrepResult;
+import grep.Grep.Options;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps the results of a search up to date as files change, by watching the
+ * searched directories with a WatchService and searching each file again when
+ * it's created or modified.  Files which only grew, like logs, are searched
+ * from where the last search of them ended rather than from the start.
+ *
+ * Changes are handled on a thread of the watcher's own, and reported to its
+ * listener file by file as they're found.  Bursts of changes are gathered for
+ * a moment first, so a file written several times in quick succession is
+ * only searched once.
+ */
+public class Watcher implements Closeable {
+    // how long to wait for more changes before searching the changed files
+    private static final long SETTLE_MILLIS = 50;
+    // bytes before the end of the last search which must be unchanged for a file to have only grown
+    private static final int CHECK_BYTES = 64;
+
+    /**
+     * Receives the new results of each file that changed.
+     */
+    public interface Listener {
+        /**
+         * Called with all the results in a file which changed, an empty list if it
+         * no longer matches or was deleted.
+         */
+        void updated(File file, ArrayList<GrepResult> results);
+    }
+
+    private final File root;
+    private final boolean rootIsDir;
+    private final Pattern pattern;
+    private final FileFilter filter;
+    private final boolean recursive;
+    private final Options opts;
+    private final Listener listener;
+    private final WatchService service;
+    private final HashMap<WatchKey,File> dirs = new HashMap<>();
+    // the files searched since watching began
+    private final HashMap<File,Watched> files = new HashMap<>();
+
+    private Watcher(File r, Pattern p, FileFilter ff, boolean rec, Options o, Listener l) throws IOException {
+        root = r;
+        rootIsDir = r.isDirectory();
+        pattern = p;
+        filter = ff;
+        recursive = rec;
+        opts = o;
+        listener = l;
+        service = r.getAbsoluteFile().toPath().getFileSystem().newWatchService();
+    }
+
+    /**
+     * Starts watching the files a search of the same arguments would search.
+     * Directories are registered, which may take a moment for a large tree, on
+     * the watcher's thread, so changes made right after this returns may be
+     * missed.
+     */
+    public static Watcher start(File root, Pattern pattern, FileFilter ff, boolean recursive, Options opts, Listener listener) throws IOException {
+        final Watcher w = new Watcher(root, pattern, ff, recursive, opts, listener);
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                w.watch();
+            }
+        }, "jGrep watch");
+        t.setDaemon(true);
+        t.start();
+        return w;
+    }
+
+    /**
+     * Stops watching.
+     */
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    private void watch(){
+        try {
+            if(rootIsDir)
+                register(root, null);
+            else
+                register(root.getAbsoluteFile().getParentFile(), null);
+            while(true){
+                LinkedHashSet<File> changed = new LinkedHashSet<>();
+                boolean overflow = false;
+                WatchKey key = service.take();
+                while(key != null){
+                    File dir = dirs.get(key);
+                    for(WatchEvent<?> ev : key.pollEvents()){
+                        if(ev.kind() == StandardWatchEventKinds.OVERFLOW){
+                            overflow = true;
+                            continue;
+                        }
+                        File f = dir == null ? null : child(dir, ((Path)ev.context()).toString());
+                        if(f == null)
+                            continue;
+                        if(ev.kind() == StandardWatchEventKinds.ENTRY_CREATE && f.isDirectory()){
+                            if(recursive && accept(f))
+                                register(f, changed); // its files may have been created before it was registered
+                            continue;
+                        }
+                        changed.add(f);
+                    }
+                    if(!key.reset())
+                        dirs.remove(key);
+                    key = service.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+                }
+                if(overflow){ // events were lost, check everything
+                    for(File dir : new ArrayList<>(dirs.values()))
+                        listFiles(dir, changed);
+                    changed.addAll(files.keySet());
+                }
+                for(File f : changed)
+                    update(f);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            // TODO Improve error reporting
+            System.err.println(e);
+        }
+    }
+
+    /**
+     * Returns the file with the given name in a watched directory, named as the
+     * search names it, or null if it's not one the search would include.
+     */
+    private File child(File dir, String name){
+        if(!rootIsDir)
+            return root.getName().equals(name) ? root : null;
+        return new File(dir, name);
+    }
+
+    private boolean accept(File f){
+        return filter == null || filter.accept(f);
+    }
+
+    /**
+     * Watches a directory, and if the search is recursive those beneath it,
+     * adding the files in them to changed if it's given.
+     */
+    private void register(File dir, LinkedHashSet<File> changed) throws IOException {
+        WatchKey key = dir.toPath().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+        dirs.put(key, dir);
+        if(!rootIsDir)
+            return;
+        File[] list = dir.listFiles(filter);
+        if(list == null)
+            return;
+        for(File f : list){
+            if(f.isDirectory()){
+                if(recursive)
+                    register(f, changed);
+            } else if(changed != null){
+                changed.add(f);
+            }
+        }
+    }
+
+    private void listFiles(File dir, LinkedHashSet<File> changed){
+        if(!rootIsDir){
+            changed.add(root);
+            return;
+        }
+        File[] list = dir.listFiles(filter);
+        if(list == null)
+            return;
+        for(File f : list){
+            if(!f.isDirectory())
+                changed.add(f);
+        }
+    }
+
+    /**
+     * Searches a changed file again, or just the lines added to it if it only
+     * grew, and reports its results.
+     */
+    private void update(File f){
+        Watched w = files.get(f);
+        if(!f.isFile()){
+            if(f.exists())
+                return;
+            files.remove(f);
+            listener.updated(f, new ArrayList<GrepResult>());
+            return;
+        }
+        if(!accept(f))
+            return;
+        long size = f.length();
+        long mtime = f.lastModified();
+        if(w != null && w.size == size && w.mtime == mtime)
+            return;
+        if(w == null || !w.grew(f, size))
+            w = new Watched();
+        int resumed = w.tail.lines;
+        ArrayList<GrepResult> found = Grep.grepFile(f, pattern, opts, null, w.tail);
+        Iterator<GrepResult> it = w.results.iterator();
+        while(it.hasNext()){ // the last line, if it wasn't finished, was searched again
+            if(it.next().getLineNumber() > resumed)
+                it.remove();
+        }
+        w.results.addAll(found);
+        if(w.results.size() > opts.maxCount) // the new lines were searched without the earlier results
+            w.results.subList(opts.maxCount, w.results.size()).clear();
+        w.size = size;
+        w.mtime = mtime;
+        w.check = w.tail.offset == 0 ? null : read(f, w.tail.offset);
+        files.put(f, w);
+        listener.updated(f, new ArrayList<>(w.results));
+    }
+
+    /**
+     * Reads the bytes just before the given offset, or returns null if they
+     * can't be read.
+     */
+    private static byte[] read(File f, long offset){
+        byte[] bytes = new byte[(int)Math.min(CHECK_BYTES, offset)];
+        try (RandomAccessFile in = new RandomAccessFile(f, "r")) {
+            in.seek(offset-bytes.length);
+            in.readFully(bytes);
+            return bytes;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A file searched since watching began, and how it looked then.
+     */
+    private static class Watched {
+        final FileTail tail = new FileTail();
+        final ArrayList<GrepResult> results = new ArrayList<>();
+        long size;
+        long mtime;
+        byte[] check; // the bytes before the tail
+
+        /**
+         * Returns true if the file looks to have only been appended to, so only
+         * its tail needs to be searched.
+         */
+        boolean grew(File f, long newSize){
+            if(tail.binary || check == null || newSize < size)
+                return false;
+            return Arrays.equals(check, read(f, tail.offset));
+        }
+    }
+}